@@ -0,0 +1,190 @@
+package com.ntsync.android.sync.activities;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.http.auth.AuthenticationException;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.AuthenticatorException;
+import android.accounts.NetworkErrorException;
+import android.accounts.OperationCanceledException;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.ntsync.android.sync.client.NetworkUtilities;
+import com.ntsync.android.sync.client.ServerException;
+import com.ntsync.android.sync.shared.AccountStatistic;
+import com.ntsync.shared.Restrictions;
+
+/**
+ * Keeps the last loaded account statistics, so that they can be shown
+ * immediately, and loads missing restrictions from the server in the
+ * background. The started {@link AccountStatisticListLoader}s are reloaded
+ * when the restrictions of an account are available.
+ */
+final class AccountStatisticCache {
+
+	private static final String TAG = "AccountStatisticCache";
+
+	private static final int MAX_WORKERS = 2;
+
+	private static volatile List<AccountStatistic> lastStatistic;
+
+	/** Restrictions loaded from the server, by account name */
+	private static final Map<String, Restrictions> SERVER_RESTRICTIONS = new ConcurrentHashMap<String, Restrictions>();
+
+	/** Accounts whose restrictions are currently loaded */
+	private static final Set<String> PENDING = new HashSet<String>();
+
+	private static final List<AccountStatisticListLoader> LOADERS = new ArrayList<AccountStatisticListLoader>();
+
+	private static ExecutorService executor;
+
+	private static Handler mainHandler;
+
+	private AccountStatisticCache() {
+	}
+
+	/**
+	 * @return last loaded statistic or null
+	 */
+	static List<AccountStatistic> getLastStatistic() {
+		return lastStatistic;
+	}
+
+	static void setLastStatistic(List<AccountStatistic> statistic) {
+		lastStatistic = statistic;
+	}
+
+	/**
+	 * @return restrictions loaded from the server or null
+	 */
+	static Restrictions getServerRestrictions(String accountName) {
+		return SERVER_RESTRICTIONS.get(accountName);
+	}
+
+	/**
+	 * Registers a loader which is reloaded when new restrictions are
+	 * available. Has to be called from the main thread.
+	 */
+	static synchronized void register(AccountStatisticListLoader loader) {
+		if (!LOADERS.contains(loader)) {
+			LOADERS.add(loader);
+		}
+	}
+
+	static synchronized void unregister(AccountStatisticListLoader loader) {
+		LOADERS.remove(loader);
+	}
+
+	/**
+	 * Starts loading the restrictions of the account from the server, if
+	 * they are not already loading.
+	 */
+	static synchronized void loadRestrictions(final Context context,
+			final Account account) {
+		if (!PENDING.add(account.name)) {
+			return;
+		}
+		if (executor == null) {
+			mainHandler = new Handler(Looper.getMainLooper());
+			executor = Executors.newFixedThreadPool(MAX_WORKERS,
+					new ThreadFactory() {
+						public Thread newThread(final Runnable r) {
+							Thread thread = new Thread(new Runnable() {
+								public void run() {
+									Process.setThreadPriority(
+											Process.THREAD_PRIORITY_BACKGROUND);
+									r.run();
+								}
+							}, "RestrictionLoader");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				Restrictions restr = null;
+				try {
+					restr = fetchRestrictions(context, account);
+				} finally {
+					finishLoading(account.name, restr);
+				}
+			}
+		});
+	}
+
+	private static Restrictions fetchRestrictions(Context context,
+			Account account) {
+		AccountManager accountManager = AccountManager.get(context);
+		try {
+			String authtoken = NetworkUtilities.blockingGetAuthToken(
+					accountManager, account, null);
+			return NetworkUtilities.getRestrictions(context, account,
+					authtoken, accountManager);
+		} catch (OperationCanceledException e) {
+			Log.i(TAG, "Restriction loading canceled from user", e);
+		} catch (AuthenticatorException e) {
+			Log.w(TAG, "Authenticator failed", e);
+		} catch (AuthenticationException e) {
+			Log.i(TAG, "Authentification failed", e);
+		} catch (NetworkErrorException e) {
+			Log.i(TAG, "Loading Restrictions failed", e);
+		} catch (ServerException e) {
+			Log.i(TAG, "Loading Restrictions failed", e);
+		}
+		return null;
+	}
+
+	private static synchronized void finishLoading(String accountName,
+			Restrictions restr) {
+		PENDING.remove(accountName);
+		if (restr == null) {
+			return;
+		}
+		SERVER_RESTRICTIONS.put(accountName, restr);
+		mainHandler.post(new Runnable() {
+			public void run() {
+				List<AccountStatisticListLoader> loaders;
+				synchronized (AccountStatisticCache.class) {
+					loaders = new ArrayList<AccountStatisticListLoader>(
+							LOADERS);
+				}
+				for (AccountStatisticListLoader loader : loaders) {
+					loader.onContentChanged();
+				}
+			}
+		});
+	}
+}
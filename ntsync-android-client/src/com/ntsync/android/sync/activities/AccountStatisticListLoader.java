@@ -22,23 +22,15 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import org.apache.http.auth.AuthenticationException;
-
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.accounts.AuthenticatorException;
-import android.accounts.NetworkErrorException;
-import android.accounts.OperationCanceledException;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.PeriodicSync;
 import android.provider.ContactsContract;
 import android.support.v4.content.AsyncTaskLoader;
-import android.util.Log;
 
-import com.ntsync.android.sync.client.NetworkUtilities;
-import com.ntsync.android.sync.client.ServerException;
-import com.ntsync.android.sync.platform.ContactManager;
+import com.ntsync.android.sync.platform.ContactCountCache;
 import com.ntsync.android.sync.shared.AccountStatistic;
 import com.ntsync.android.sync.shared.AccountSyncResult;
 import com.ntsync.android.sync.shared.Constants;
@@ -46,13 +38,13 @@ import com.ntsync.android.sync.shared.SyncUtils;
 import com.ntsync.shared.Restrictions;
 
 /**
- * A custom Loader that loads all of our sync-accounts.
+ * A custom Loader that loads all of our sync-accounts. Missing restrictions
+ * are loaded in the background (see {@link AccountStatisticCache}), the loader
+ * is reloaded when they are available.
  */
 public class AccountStatisticListLoader extends
 		AsyncTaskLoader<List<AccountStatistic>> {
 
-	private static final String TAG = "AccountStatisticListLoader";
-
 	List<AccountStatistic> accountList;
 	private final AccountManager accountManager;
 
@@ -100,36 +92,26 @@ public class AccountStatisticListLoader extends
 			boolean autoSync = ContentResolver.getSyncAutomatically(account,
 					ContactsContract.AUTHORITY);
 
-			// Get Restrictions
+			// Get Restrictions, don't wait for the server
 			Restrictions restr = SyncUtils.getRestrictions(account,
 					accountManager);
 			if (restr == null) {
-				try {
-					String authtoken = NetworkUtilities.blockingGetAuthToken(
-							accountManager, account, null);
-					restr = NetworkUtilities.getRestrictions(getContext(),
-							account, authtoken, accountManager);
-				} catch (OperationCanceledException e) {
-					Log.i(TAG, "Restriction loading canceled from user", e);
-				} catch (AuthenticatorException e) {
-					Log.w(TAG, "Authenticator failed", e);
-				} catch (AuthenticationException e) {
-					Log.i(TAG, "Authentification failed", e);
-				} catch (NetworkErrorException e) {
-					Log.i(TAG, "Loading Restrictions failed", e);
-				} catch (ServerException e) {
-					Log.i(TAG, "Loading Restrictions failed", e);
+				restr = AccountStatisticCache.getServerRestrictions(username);
+				if (restr == null) {
+					AccountStatisticCache.loadRestrictions(ctx, account);
 				}
 			}
 
-			contactCount = ContactManager.getContactCount(ctx, account);
-			contactGroupCount = ContactManager.getContactGroupCount(ctx,
+			ContactCountCache.Counts counts = ContactCountCache.getCounts(ctx,
 					account);
+			contactCount = counts.contactCount;
+			contactGroupCount = counts.contactGroupCount;
 
 			statList.add(new AccountStatistic(username, contactCount,
 					contactGroupCount, restr, syncResult, nextSync, autoSync));
 
 		}
+		AccountStatisticCache.setLastStatistic(statList);
 		return statList;
 	}
 
@@ -150,7 +132,15 @@ public class AccountStatisticListLoader extends
 
 	@Override
 	protected void onStartLoading() {
-		if (accountList != null) {
+		AccountStatisticCache.register(this);
+		if (accountList == null) {
+			// Show the last statistic until the new one is loaded
+			List<AccountStatistic> lastStatistic = AccountStatisticCache
+					.getLastStatistic();
+			if (lastStatistic != null) {
+				deliverResult(lastStatistic);
+			}
+		} else {
 			deliverResult(accountList);
 		}
 
@@ -159,6 +149,7 @@ public class AccountStatisticListLoader extends
 
 	@Override
 	protected void onStopLoading() {
+		AccountStatisticCache.unregister(this);
 		cancelLoad();
 	}
 
@@ -46,6 +46,7 @@ import com.ntsync.android.sync.R;
 import com.ntsync.android.sync.platform.AccountInfo;
 import com.ntsync.android.sync.platform.BatchOperation;
 import com.ntsync.android.sync.platform.ContactManager;
+import com.ntsync.android.sync.platform.GroupIndex;
 import com.ntsync.android.sync.shared.Constants;
 import com.ntsync.android.sync.shared.LogHelper;
 import com.ntsync.shared.RawContact;
@@ -297,6 +298,7 @@ public class ImportProgressDialog extends DialogFragment {
 			Map<Long, String> cachedGroupIds = new HashMap<Long, String>();
 			List<RawContact> rawContacts = new ArrayList<RawContact>(6);
 			BatchOperation batchOp = new BatchOperation(resolver);
+			GroupIndex groupIndex = GroupIndex.load(resolver, accountName);
 
 			for (Iterator<Long> iterator = contactIds.iterator(); iterator
 					.hasNext();) {
@@ -308,9 +310,12 @@ public class ImportProgressDialog extends DialogFragment {
 				rawContacts.add(rawContact);
 				// Prepare Delete
 				if (deleteLocalContacts) {
-					batchOp.add(ContentProviderOperation.newDelete(
-							ContentUris.withAppendedId(RawContacts.CONTENT_URI,
-									rawContactId)).build());
+					batchOp.add(ContentProviderOperation
+							.newDelete(
+									ContentUris.withAppendedId(
+											RawContacts.CONTENT_URI,
+											rawContactId))
+							.withYieldAllowed(true).build());
 				}
 
 				if (isCancelled()) {
@@ -319,7 +324,7 @@ public class ImportProgressDialog extends DialogFragment {
 				if (rawContacts.size() >= 5) {
 					// import only some contacts to prevent overuse of memory.
 					ContactManager.updateContacts(context, accountName,
-							rawContacts, false, null);
+							rawContacts, false, null, groupIndex, null);
 					importedCount += rawContacts.size();
 					rawContacts.clear();
 					batchOp.execute();
@@ -329,7 +334,7 @@ public class ImportProgressDialog extends DialogFragment {
 			}
 			if (!rawContacts.isEmpty()) {
 				ContactManager.updateContacts(context, accountName,
-						rawContacts, false, null);
+						rawContacts, false, null, groupIndex, null);
 				importedCount += rawContacts.size();
 				batchOp.execute();
 			}
@@ -37,7 +37,9 @@ package com.ntsync.android.sync.client;
  */
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.security.SecureRandom;
@@ -629,7 +631,7 @@ public final class NetworkUtilities {
 
 				respEntity = resp.getEntity();
 				if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-					final byte[] response = EntityUtils.toByteArray(respEntity);
+					final byte[] response = readResponse(respEntity);
 
 					syncResponse = processServerResponse(account, key,
 							accountManager, clientId, response, syncResult);
@@ -659,6 +661,33 @@ public final class NetworkUtilities {
 		return syncResponse;
 	}
 
+	/**
+	 * Reads the response. If the length is known, the content is read directly
+	 * into the result array without buffering it twice.
+	 */
+	private static byte[] readResponse(HttpEntity entity) throws IOException {
+		long length = entity.getContentLength();
+		if (length < 0 || length > Integer.MAX_VALUE) {
+			return EntityUtils.toByteArray(entity);
+		}
+		byte[] response = new byte[(int) length];
+		InputStream in = entity.getContent();
+		try {
+			int offset = 0;
+			while (offset < response.length) {
+				int count = in.read(response, offset, response.length - offset);
+				if (count < 0) {
+					throw new EOFException("Response incomplete: " + offset
+							+ " of " + length + " bytes");
+				}
+				offset += count;
+			}
+		} finally {
+			in.close();
+		}
+		return response;
+	}
+
 	private static SyncResponse processServerResponse(Account account,
 			SecretKey key, AccountManager accountManager, String clientId,
 			final byte[] response, SyncResult syncResult)
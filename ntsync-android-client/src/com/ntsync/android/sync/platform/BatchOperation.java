@@ -46,31 +46,44 @@ import android.content.ContentResolver;
 import android.content.OperationApplicationException;
 import android.net.Uri;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
+import android.util.Log;
 
 /**
  * This class handles execution of batch mOperations on Contacts provider.
+ * <p>
+ * The operations are applied in chunks of
+ * {@link BatchSizePolicy#getMaxOperations()} operations. Every chunk is an own
+ * transaction, so other readers of the contacts provider are only blocked for
+ * one chunk. A chunk only ends before the first operation of a contact (an
+ * operation with yield allowed), so the operations of one contact are applied
+ * in the same transaction. A chunk is never split between an operation and the
+ * operation whose result it references.
  */
 public final class BatchOperation {
 
+	private static final String TAG = "BatchOperation";
+
+	private static final String TRANSACTION_TOO_LARGE = "android.os.TransactionTooLargeException";
+
 	private final ContentResolver mResolver;
 
 	// List for storing the batch mOperations
-	private final ArrayList<ContentProviderOperation> mOperations;
+	private final ArrayList<Entry> mOperations;
 
 	/** Count BlobSizes */
 	private int totalBlobSize = 0;
 
-	/**
-	 * Limit over Batches should be executed. 400KB. (currently maximum display
-	 * size is 720x720 -> 512KB, 1MB- 512KB = 488KB, damit vor dem hinzuf�gen
-	 * des n�chsten photos die batches abgeschickt werden.
-	 */
-	private int goodBlobSize = 400 * 1000;
+	/** Size of the blob of the next added operation. */
+	private int nextBlobSize = 0;
+
+	/** Scales the photos of the operations ahead, can be null. */
+	private PhotoProcessor photoProcessor;
 
 	public BatchOperation(ContentResolver resolver) {
 		mResolver = resolver;
-		mOperations = new ArrayList<ContentProviderOperation>();
+		mOperations = new ArrayList<Entry>();
 	}
 
 	public int size() {
@@ -78,7 +91,46 @@ public final class BatchOperation {
 	}
 
 	public void add(ContentProviderOperation cpo) {
-		mOperations.add(cpo);
+		addEntry(new Entry(cpo, null, null, -1));
+	}
+
+	/**
+	 * Adds an operation which uses the result of a previous operation of this
+	 * batch as value.
+	 * 
+	 * @param builder
+	 *            builder of the operation, the back reference is set when the
+	 *            batch is executed.
+	 * @param key
+	 *            name of the value
+	 * @param previousResult
+	 *            index of the operation in this batch (see {@link #size()})
+	 *            whose result is used.
+	 */
+	public void add(ContentProviderOperation.Builder builder, String key,
+			int previousResult) {
+		if (previousResult < 0 || previousResult >= mOperations.size()) {
+			throw new IllegalArgumentException("Invalid back reference "
+					+ previousResult + " for batch with size "
+					+ mOperations.size());
+		}
+		addEntry(new Entry(null, builder, key, previousResult));
+	}
+
+	private void addEntry(Entry entry) {
+		entry.blobSize = nextBlobSize;
+		nextBlobSize = 0;
+		mOperations.add(entry);
+	}
+
+	/**
+	 * @return true if the batch should be executed, because it contains the
+	 *         max. count of operations or blobs.
+	 * @see BatchSizePolicy
+	 */
+	public boolean isFull() {
+		return mOperations.size() >= BatchSizePolicy.getMaxOperations()
+				|| isBlobSizeBig();
 	}
 
 	/**
@@ -88,33 +140,165 @@ public final class BatchOperation {
 		// Da ein Limit von 1MB f�r alle ConstantValue und nicht nur Blobs
 		// besteht,
 		// fr�hzeitig den Batch ausf�hren -> aufgabe vom caller.
-		return totalBlobSize >= goodBlobSize;
+		return totalBlobSize >= BatchSizePolicy.getMaxBlobSize();
 	}
 
+	/**
+	 * Adds the size of a blob which belongs to the next added operation.
+	 */
 	public void addBlobSize(int blobSize) {
 		totalBlobSize += blobSize;
+		nextBlobSize += blobSize;
+	}
+
+	PhotoProcessor getPhotoProcessor() {
+		return photoProcessor;
+	}
+
+	void setPhotoProcessor(PhotoProcessor photoProcessor) {
+		this.photoProcessor = photoProcessor;
 	}
 
+	/**
+	 * Applies all operations and clears the batch.
+	 * 
+	 * @return uris of the results of all operations in the order of the
+	 *         operations.
+	 */
 	public List<Uri> execute() throws OperationApplicationException {
-		List<Uri> resultUris = new ArrayList<Uri>();
+		List<Uri> resultUris = new ArrayList<Uri>(mOperations.size());
 
 		if (mOperations.isEmpty()) {
 			return resultUris;
 		}
+		long start = SystemClock.elapsedRealtime();
+		long maxChunkDuration = 0;
+		int chunkCount = 0;
+		int chunkStart = 0;
+		while (chunkStart < mOperations.size()) {
+			int chunkEnd = findChunkEnd(chunkStart,
+					BatchSizePolicy.getMaxOperations(),
+					BatchSizePolicy.getMaxBlobSize());
+			long duration = applyChunk(chunkStart, chunkEnd, resultUris);
+			maxChunkDuration = Math.max(maxChunkDuration, duration);
+			chunkCount++;
+			chunkStart = chunkEnd;
+		}
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			long duration = SystemClock.elapsedRealtime() - start;
+			Log.d(TAG, "Applied " + mOperations.size() + " operations in "
+					+ chunkCount + " chunks in " + duration + " ms (max. "
+					+ maxChunkDuration + " ms per chunk)");
+		}
+		mOperations.clear();
+		totalBlobSize = 0;
+		return resultUris;
+	}
+
+	/**
+	 * Finds the end of the chunk which starts at <code>chunkStart</code>. The
+	 * chunk contains at least one operation and is extended up to the next
+	 * first operation of a contact and until all back references into the
+	 * chunk are resolved.
+	 * 
+	 * @return index of the first operation after the chunk
+	 */
+	private int findChunkEnd(int chunkStart, int maxOperations, int maxBlobSize) {
+		int size = mOperations.size();
+		int end = chunkStart;
+		int blobSize = 0;
+		while (end < size) {
+			blobSize += mOperations.get(end).blobSize;
+			end++;
+			if (end - chunkStart >= maxOperations || blobSize >= maxBlobSize) {
+				break;
+			}
+		}
+		// The remaining operations of the last contact belong to the chunk.
+		while (end < size && !mOperations.get(end).contactStart) {
+			end++;
+		}
+		// Operations after the end must not reference an operation in the
+		// chunk, otherwise the chunk is extended up to this operation.
+		for (int i = end; i < size; i++) {
+			int previousResult = mOperations.get(i).previousResult;
+			if (previousResult >= chunkStart && previousResult < end) {
+				end = i + 1;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Applies the operations from <code>chunkStart</code> (inclusive) to
+	 * <code>chunkEnd</code> (exclusive) in one transaction.
+	 * 
+	 * @return duration of applyBatch in ms
+	 */
+	private long applyChunk(int chunkStart, int chunkEnd, List<Uri> resultUris)
+			throws OperationApplicationException {
+		ArrayList<ContentProviderOperation> chunk = new ArrayList<ContentProviderOperation>(
+				chunkEnd - chunkStart);
+		int blobSize = 0;
+		for (int i = chunkStart; i < chunkEnd; i++) {
+			Entry entry = mOperations.get(i);
+			chunk.add(entry.build(chunkStart));
+			blobSize += entry.blobSize;
+		}
 		// Apply the mOperations to the content provider
 		try {
+			long start = SystemClock.elapsedRealtime();
 			ContentProviderResult[] results = mResolver.applyBatch(
-					ContactsContract.AUTHORITY, mOperations);
-			if ((results != null) && (results.length > 0)) {
+					ContactsContract.AUTHORITY, chunk);
+			long duration = SystemClock.elapsedRealtime() - start;
+			BatchSizePolicy.onBatchApplied(chunk.size(), blobSize, duration);
+			if (results != null) {
 				for (int i = 0; i < results.length; i++) {
 					resultUris.add(results[i].uri);
 				}
 			}
+			return duration;
 		} catch (final RemoteException e) {
+			// TransactionTooLargeException is only available since API 15
+			if (TRANSACTION_TOO_LARGE.equals(e.getClass().getName())) {
+				BatchSizePolicy.onTransactionTooLarge(chunk.size(), blobSize);
+			}
 			throw new OperationApplicationException(e);
 		}
-		mOperations.clear();
-		totalBlobSize = 0;
-		return resultUris;
+	}
+
+	/**
+	 * An operation of the batch. Operations with a back reference are built
+	 * when the chunk is known, because the index of the reference is relative
+	 * to the start of the chunk.
+	 */
+	private static final class Entry {
+		private final ContentProviderOperation operation;
+		private final ContentProviderOperation.Builder builder;
+		private final String key;
+		private final int previousResult;
+		/** True for the first operation of a contact. */
+		private final boolean contactStart;
+		private int blobSize;
+
+		Entry(ContentProviderOperation operation,
+				ContentProviderOperation.Builder builder, String key,
+				int previousResult) {
+			this.operation = operation;
+			this.builder = builder;
+			this.key = key;
+			this.previousResult = previousResult;
+			// Operations with a back reference never start a contact
+			this.contactStart = operation != null
+					&& operation.isYieldAllowed();
+		}
+
+		ContentProviderOperation build(int chunkStart) {
+			if (operation != null) {
+				return operation;
+			}
+			return builder.withValueBackReference(key,
+					previousResult - chunkStart).build();
+		}
 	}
 }
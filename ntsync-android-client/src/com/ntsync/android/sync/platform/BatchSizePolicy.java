@@ -0,0 +1,133 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import com.ntsync.android.sync.shared.LogHelper;
+
+/**
+ * Adapts the size of the batches to the measured duration of applyBatch. Slow
+ * batches are made smaller, so that the contacts provider is not blocked too
+ * long, fast batches which were full are made bigger.
+ */
+public final class BatchSizePolicy {
+
+	private static final String TAG = "BatchSizePolicy";
+
+	private static final int MIN_OPERATIONS = 10;
+
+	private static final int INITIAL_OPERATIONS = 50;
+
+	private static final int MAX_OPERATIONS = 250;
+
+	private static final int MIN_BLOB_SIZE = 100 * 1000;
+
+	private static final int BLOB_SIZE_STEP = 50 * 1000;
+
+	/**
+	 * Max. size of the blobs in one batch. The binder transaction buffer of
+	 * 1MB is shared by all transactions of the process.
+	 */
+	private static final int MAX_BLOB_SIZE = 400 * 1000;
+
+	/** Batches which are slower are made smaller. */
+	private static final long SLOW_BATCH_MS = 400;
+
+	/** Full batches which are faster are made bigger. */
+	private static final long FAST_BATCH_MS = 100;
+
+	private static int maxOperations = INITIAL_OPERATIONS;
+
+	private static int maxBlobSize = MAX_BLOB_SIZE;
+
+	private BatchSizePolicy() {
+	}
+
+	/**
+	 * @return current max. count of operations in one batch.
+	 */
+	public static synchronized int getMaxOperations() {
+		return maxOperations;
+	}
+
+	/**
+	 * @return current max. size of the blobs in one batch.
+	 */
+	public static synchronized int getMaxBlobSize() {
+		return maxBlobSize;
+	}
+
+	/**
+	 * Adapts the batch size to the duration of an applied batch.
+	 *
+	 * @param operationCount
+	 *            count of applied operations
+	 * @param blobSize
+	 *            size of the applied blobs
+	 * @param duration
+	 *            duration of applyBatch in ms
+	 */
+	static synchronized void onBatchApplied(int operationCount, int blobSize,
+			long duration) {
+		int newMaxOperations = maxOperations;
+		if (duration > SLOW_BATCH_MS && operationCount > MIN_OPERATIONS) {
+			// Scale down to the count which can be applied in time
+			newMaxOperations = Math.max(MIN_OPERATIONS,
+					(int) (operationCount * SLOW_BATCH_MS / duration));
+		} else if (duration < FAST_BATCH_MS
+				&& operationCount >= maxOperations) {
+			newMaxOperations = Math.min(MAX_OPERATIONS,
+					maxOperations + maxOperations / 4);
+		}
+		if (blobSize >= maxBlobSize && duration < SLOW_BATCH_MS
+				&& maxBlobSize < MAX_BLOB_SIZE) {
+			// Recover slowly after a too large transaction
+			maxBlobSize = Math.min(MAX_BLOB_SIZE, maxBlobSize + BLOB_SIZE_STEP);
+			LogHelper.logD(TAG, "Max. blob size per batch: {}",
+					Integer.valueOf(maxBlobSize));
+		}
+		if (newMaxOperations != maxOperations) {
+			maxOperations = newMaxOperations;
+			LogHelper.logD(TAG, "Max. operations per batch: {}",
+					Integer.valueOf(maxOperations));
+		}
+	}
+
+	/**
+	 * Resets the limits to the initial values.
+	 */
+	static synchronized void reset() {
+		maxOperations = INITIAL_OPERATIONS;
+		maxBlobSize = MAX_BLOB_SIZE;
+	}
+
+	/**
+	 * Halves the batch size after a batch failed because the transaction was
+	 * too large.
+	 */
+	static synchronized void onTransactionTooLarge(int operationCount,
+			int blobSize) {
+		maxOperations = Math.max(MIN_OPERATIONS,
+				Math.min(maxOperations, operationCount / 2));
+		maxBlobSize = Math.max(MIN_BLOB_SIZE,
+				Math.min(maxBlobSize, blobSize / 2));
+		LogHelper.logW(TAG, "Transaction too large with " + operationCount
+				+ " operations and " + blobSize + " bytes. New limits: "
+				+ maxOperations + " operations, " + maxBlobSize + " bytes");
+	}
+}
@@ -0,0 +1,94 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.accounts.Account;
+import android.content.Context;
+
+/**
+ * Caches the count of contacts and groups per account for the statistics.
+ * The counts are invalidated when contacts or groups of an account are
+ * applied or when the local contacts have changed.
+ */
+public final class ContactCountCache {
+
+	private static final Map<String, Counts> CACHE = new ConcurrentHashMap<String, Counts>();
+
+	/**
+	 * Incremented for every invalidation, so that counts loaded during an
+	 * invalidation are not cached.
+	 */
+	private static final AtomicInteger GENERATION = new AtomicInteger();
+
+	private ContactCountCache() {
+	}
+
+	/**
+	 * @return count of contacts and groups of the account, loaded from the
+	 *         contacts provider if they are not cached.
+	 */
+	public static Counts getCounts(Context context, Account account) {
+		Counts counts = CACHE.get(account.name);
+		if (counts == null) {
+			int generation = GENERATION.get();
+			counts = new Counts(ContactManager.getContactCount(context,
+					account), ContactManager.getContactGroupCount(context,
+					account));
+			if (generation == GENERATION.get()) {
+				CACHE.put(account.name, counts);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Removes the counts of an account.
+	 */
+	public static void invalidate(String accountName) {
+		GENERATION.incrementAndGet();
+		CACHE.remove(accountName);
+	}
+
+	/**
+	 * Removes the counts of all accounts.
+	 */
+	public static void invalidateAll() {
+		GENERATION.incrementAndGet();
+		CACHE.clear();
+	}
+
+	/**
+	 * Count of contacts and groups of an account.
+	 */
+	public static final class Counts {
+
+		public final int contactCount;
+
+		public final int contactGroupCount;
+
+		Counts(int contactCount, int contactGroupCount) {
+			this.contactCount = contactCount;
+			this.contactGroupCount = contactGroupCount;
+		}
+	}
+}
@@ -0,0 +1,510 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Event;
+import android.provider.ContactsContract.CommonDataKinds.Im;
+import android.provider.ContactsContract.CommonDataKinds.Nickname;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.Relation;
+import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
+import android.provider.ContactsContract.CommonDataKinds.Website;
+import android.provider.ContactsContract.Data;
+
+import com.ntsync.android.sync.platform.ContactManager.DataQuery;
+import com.ntsync.shared.ContactConstants.EmailType;
+import com.ntsync.shared.ContactConstants.EventType;
+import com.ntsync.shared.ContactConstants.NicknameType;
+import com.ntsync.shared.ContactConstants.PhoneType;
+import com.ntsync.shared.ContactConstants.RelationType;
+import com.ntsync.shared.ContactConstants.WebsiteType;
+import com.ntsync.shared.ListRawData;
+import com.ntsync.shared.ListRawData.RawAddressData;
+import com.ntsync.shared.ListRawData.RawImData;
+import com.ntsync.shared.RawContact;
+
+/**
+ * Computes the operations to update the list data rows (phones, emails, ...)
+ * of an existing raw contact. The existing rows are indexed by mimetype and
+ * by their values. A value which is already stored produces no operation,
+ * otherwise an existing row with the same type is updated or a new row is
+ * inserted. Existing rows which are left over are deleted.
+ */
+final class ContactDataDiff {
+
+	private static final Map<String, DataKind<?>> KINDS = new HashMap<String, DataKind<?>>();
+
+	private static final DataKind<ListRawData<PhoneType>> PHONE = new ListKind<PhoneType>(
+			Phone.CONTENT_ITEM_TYPE) {
+		@Override
+		PhoneType toType(int androidType) {
+			return ContactManager.getPhoneType(androidType);
+		}
+
+		@Override
+		void update(ContactOperations op, ListRawData<PhoneType> item, Uri uri) {
+			op.updatePhone(item.getData(), item.getLabel(), item.isPrimary(),
+					item.isSuperPrimary(), uri);
+		}
+
+		@Override
+		void add(ContactOperations op, ListRawData<PhoneType> item) {
+			op.addPhone(item.getData(),
+					ContactManager.getAndroidPhoneType(item.getType()),
+					item.getLabel(), item.isPrimary(), item.isSuperPrimary());
+		}
+	};
+
+	private static final DataKind<ListRawData<EmailType>> EMAIL = new ListKind<EmailType>(
+			Email.CONTENT_ITEM_TYPE) {
+		@Override
+		EmailType toType(int androidType) {
+			return ContactManager.getEmailType(androidType);
+		}
+
+		@Override
+		void update(ContactOperations op, ListRawData<EmailType> item, Uri uri) {
+			op.updateEmail(item.getData(), item.getLabel(), item.isPrimary(),
+					item.isSuperPrimary(), uri);
+		}
+
+		@Override
+		void add(ContactOperations op, ListRawData<EmailType> item) {
+			op.addEmail(item.getData(),
+					ContactManager.getAndroidEmailType(item.getType()),
+					item.getLabel(), item.isPrimary(), item.isSuperPrimary());
+		}
+	};
+
+	private static final DataKind<ListRawData<WebsiteType>> WEBSITE = new ListKind<WebsiteType>(
+			Website.CONTENT_ITEM_TYPE) {
+		@Override
+		WebsiteType toType(int androidType) {
+			return ContactManager.getWebsiteType(androidType);
+		}
+
+		@Override
+		void update(ContactOperations op, ListRawData<WebsiteType> item,
+				Uri uri) {
+			op.updateWebsite(item.getData(), item.getLabel(),
+					item.isPrimary(), item.isSuperPrimary(), uri);
+		}
+
+		@Override
+		void add(ContactOperations op, ListRawData<WebsiteType> item) {
+			op.addWebsite(item.getData(),
+					ContactManager.getAndroidWebsiteType(item.getType()),
+					item.getLabel(), item.isPrimary(), item.isSuperPrimary());
+		}
+	};
+
+	private static final DataKind<ListRawData<EventType>> EVENT = new ListKind<EventType>(
+			Event.CONTENT_ITEM_TYPE) {
+		@Override
+		EventType toType(int androidType) {
+			return ContactManager.getEventType(androidType);
+		}
+
+		@Override
+		void update(ContactOperations op, ListRawData<EventType> item, Uri uri) {
+			op.updateEvent(item.getData(), item.getLabel(), item.isPrimary(),
+					item.isSuperPrimary(), uri);
+		}
+
+		@Override
+		void add(ContactOperations op, ListRawData<EventType> item) {
+			op.addEvent(item.getData(),
+					ContactManager.getAndroidEventType(item.getType()),
+					item.getLabel(), item.isPrimary(), item.isSuperPrimary());
+		}
+	};
+
+	private static final DataKind<ListRawData<RelationType>> RELATION = new ListKind<RelationType>(
+			Relation.CONTENT_ITEM_TYPE) {
+		@Override
+		RelationType toType(int androidType) {
+			return ContactManager.getRelationType(androidType);
+		}
+
+		@Override
+		void update(ContactOperations op, ListRawData<RelationType> item,
+				Uri uri) {
+			op.updateRelation(item.getData(), item.getLabel(),
+					item.isPrimary(), item.isSuperPrimary(), uri);
+		}
+
+		@Override
+		void add(ContactOperations op, ListRawData<RelationType> item) {
+			op.addRelation(item.getData(),
+					ContactManager.getAndroidRelationType(item.getType()),
+					item.getLabel(), item.isPrimary(), item.isSuperPrimary());
+		}
+	};
+
+	private static final DataKind<ListRawData<NicknameType>> NICKNAME = new ListKind<NicknameType>(
+			Nickname.CONTENT_ITEM_TYPE) {
+		@Override
+		NicknameType toType(int androidType) {
+			return ContactManager.getNicknameType(androidType);
+		}
+
+		@Override
+		void update(ContactOperations op, ListRawData<NicknameType> item,
+				Uri uri) {
+			op.updateNickname(item.getData(), item.getLabel(),
+					item.isPrimary(), item.isSuperPrimary(), uri);
+		}
+
+		@Override
+		void add(ContactOperations op, ListRawData<NicknameType> item) {
+			op.addNickname(item.getData(),
+					ContactManager.getAndroidNicknameType(item.getType()),
+					item.getLabel(), item.isPrimary(), item.isSuperPrimary());
+		}
+	};
+
+	private static final DataKind<RawImData> IM = new DataKind<RawImData>(
+			Im.CONTENT_ITEM_TYPE) {
+		@Override
+		Object getType(Cursor c) {
+			return ContactManager.getImType(c.getInt(DataQuery.COLUMN_IM_TYPE));
+		}
+
+		@Override
+		String getKey(Cursor c) {
+			return createKey(getType(c), isPrimary(c), isSuperPrimary(c),
+					c.getString(DataQuery.COLUMN_IM_ADDRESS),
+					c.getString(DataQuery.COLUMN_IM_LABEL),
+					c.getString(DataQuery.COLUMN_IM_PROTOCOL_TYPE),
+					c.getString(DataQuery.COLUMN_IM_PROTOCOL_NAME));
+		}
+
+		@Override
+		String getKey(RawImData item) {
+			return createKey(item.getType(), item.isPrimary(),
+					item.isSuperPrimary(), item.getData(), item.getLabel(),
+					String.valueOf(ContactManager.getAndroidImProtocolType(item
+							.getProtType())), item.getCustomProtocolName());
+		}
+
+		@Override
+		void update(ContactOperations op, RawImData item, Uri uri) {
+			op.updateIm(item.getData(), item.getLabel(), item.isPrimary(),
+					item.isSuperPrimary(),
+					ContactManager.getAndroidImProtocolType(item.getProtType()),
+					item.getCustomProtocolName(), uri);
+		}
+
+		@Override
+		void add(ContactOperations op, RawImData item) {
+			op.addIm(item.getData(),
+					ContactManager.getAndroidImType(item.getType()),
+					item.getLabel(), item.isPrimary(), item.isSuperPrimary(),
+					ContactManager.getAndroidImProtocolType(item.getProtType()),
+					item.getCustomProtocolName());
+		}
+	};
+
+	private static final DataKind<RawAddressData> ADDRESS = new DataKind<RawAddressData>(
+			StructuredPostal.CONTENT_ITEM_TYPE) {
+		@Override
+		Object getType(Cursor c) {
+			return ContactManager.getAddressType(c
+					.getInt(DataQuery.COLUMN_POSTAL_TYPE));
+		}
+
+		@Override
+		String getKey(Cursor c) {
+			return createKey(getType(c), isPrimary(c), isSuperPrimary(c),
+					c.getString(DataQuery.COLUMN_POSTAL_LABEL),
+					c.getString(DataQuery.COLUMN_POSTAL_STREET),
+					c.getString(DataQuery.COLUMN_POSTAL_POBOX),
+					c.getString(DataQuery.COLUMN_POSTAL_NEIGHBORHOOD),
+					c.getString(DataQuery.COLUMN_POSTAL_CITY),
+					c.getString(DataQuery.COLUMN_POSTAL_REGION),
+					c.getString(DataQuery.COLUMN_POSTAL_POSTCODE),
+					c.getString(DataQuery.COLUMN_POSTAL_COUNTRY));
+		}
+
+		@Override
+		String getKey(RawAddressData item) {
+			return createKey(item.getType(), item.isPrimary(),
+					item.isSuperPrimary(), item.getLabel(), item.getStreet(),
+					item.getPobox(), item.getNeighborhood(), item.getCity(),
+					item.getRegion(), item.getPostcode(), item.getCountry());
+		}
+
+		@Override
+		void update(ContactOperations op, RawAddressData item, Uri uri) {
+			op.updateAddress(item.getCity(), item.getCountry(),
+					item.getNeighborhood(), item.getPobox(),
+					item.getPostcode(), item.getRegion(), item.getStreet(),
+					item.getLabel(), item.isPrimary(), item.isSuperPrimary(),
+					uri);
+		}
+
+		@Override
+		void add(ContactOperations op, RawAddressData item) {
+			op.addAddress(item.getCity(), item.getCountry(), item.getLabel(),
+					ContactManager.getAndroidAddressType(item.getType()),
+					item.getNeighborhood(), item.getPobox(),
+					item.getPostcode(), item.getRegion(), item.getStreet(),
+					item.isPrimary(), item.isSuperPrimary());
+		}
+	};
+
+	static {
+		register(PHONE);
+		register(EMAIL);
+		register(WEBSITE);
+		register(EVENT);
+		register(RELATION);
+		register(NICKNAME);
+		register(IM);
+		register(ADDRESS);
+	}
+
+	private final ContactOperations contactOp;
+
+	/** Existing rows by mimetype */
+	private final Map<String, List<Row>> rows = new HashMap<String, List<Row>>();
+
+	private int unchangedCount = 0;
+
+	ContactDataDiff(ContactOperations contactOp) {
+		this.contactOp = contactOp;
+	}
+
+	private static void register(DataKind<?> kind) {
+		KINDS.put(kind.mimetype, kind);
+	}
+
+	/**
+	 * Adds the current row of a {@link DataQuery}-Cursor to the index.
+	 *
+	 * @return false if the row is not of a list type and was not added.
+	 */
+	boolean addRow(String mimeType, Cursor c) {
+		DataKind<?> kind = KINDS.get(mimeType);
+		if (kind == null) {
+			return false;
+		}
+		List<Row> kindRows = rows.get(mimeType);
+		if (kindRows == null) {
+			kindRows = new ArrayList<Row>();
+			rows.put(mimeType, kindRows);
+		}
+		kindRows.add(new Row(c.getLong(DataQuery.COLUMN_ID), kind.getType(c),
+				kind.getKey(c)));
+		return true;
+	}
+
+	/**
+	 * Creates the operations for all list types of the contact.
+	 */
+	void apply(RawContact rawContact) {
+		apply(PHONE, rawContact.getPhone());
+		apply(EMAIL, rawContact.getEmail());
+		apply(WEBSITE, rawContact.getWebsite());
+		apply(EVENT, rawContact.getEvents());
+		apply(RELATION, rawContact.getRelations());
+		apply(NICKNAME, rawContact.getNicknames());
+		apply(IM, rawContact.getImAddresses());
+		apply(ADDRESS, rawContact.getAddress());
+	}
+
+	/**
+	 * @return count of rows which were already up to date.
+	 */
+	int getUnchangedCount() {
+		return unchangedCount;
+	}
+
+	private <T extends ListRawData<?>> void apply(DataKind<T> kind,
+			List<T> items) {
+		List<Row> kindRows = rows.get(kind.mimetype);
+		List<T> changedItems = new ArrayList<T>();
+		if (kindRows == null) {
+			if (items != null) {
+				changedItems.addAll(items);
+			}
+		} else {
+			Map<String, LinkedList<Row>> rowsByKey = new HashMap<String, LinkedList<Row>>();
+			for (Row row : kindRows) {
+				LinkedList<Row> keyRows = rowsByKey.get(row.key);
+				if (keyRows == null) {
+					keyRows = new LinkedList<Row>();
+					rowsByKey.put(row.key, keyRows);
+				}
+				keyRows.add(row);
+			}
+			// Values which are already stored need no operation
+			if (items != null) {
+				for (T item : items) {
+					LinkedList<Row> keyRows = rowsByKey.get(kind.getKey(item));
+					if (keyRows != null && !keyRows.isEmpty()) {
+						keyRows.removeFirst().used = true;
+						unchangedCount++;
+					} else {
+						changedItems.add(item);
+					}
+				}
+			}
+		}
+
+		Map<Object, LinkedList<Row>> rowsByType = new HashMap<Object, LinkedList<Row>>();
+		if (kindRows != null) {
+			for (Row row : kindRows) {
+				if (!row.used) {
+					LinkedList<Row> typeRows = rowsByType.get(row.type);
+					if (typeRows == null) {
+						typeRows = new LinkedList<Row>();
+						rowsByType.put(row.type, typeRows);
+					}
+					typeRows.add(row);
+				}
+			}
+		}
+		for (T item : changedItems) {
+			// Update Entry with the same type
+			LinkedList<Row> typeRows = rowsByType.get(item.getType());
+			if (typeRows != null && !typeRows.isEmpty()) {
+				Row row = typeRows.removeFirst();
+				row.used = true;
+				kind.update(contactOp, item,
+						ContentUris.withAppendedId(Data.CONTENT_URI, row.id));
+			} else {
+				kind.add(contactOp, item);
+			}
+		}
+		if (kindRows != null) {
+			for (Row row : kindRows) {
+				if (!row.used) {
+					contactOp.deleteData(ContentUris.withAppendedId(
+							Data.CONTENT_URI, row.id));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a key which is equal for rows with the same values.
+	 */
+	private static String createKey(Object type, boolean isPrimary,
+			boolean isSuperPrimary, String... values) {
+		StringBuilder key = new StringBuilder();
+		key.append(type).append(isPrimary ? ",1" : ",0")
+				.append(isSuperPrimary ? ",1" : ",0");
+		for (String value : values) {
+			// Null and empty values are stored the same way
+			String str = value != null ? value : "";
+			key.append(',').append(str.length()).append(':').append(str);
+		}
+		return key.toString();
+	}
+
+	private static boolean isPrimary(Cursor c) {
+		return c.getInt(DataQuery.COLUMN_IS_PRIMARY) != 0;
+	}
+
+	private static boolean isSuperPrimary(Cursor c) {
+		return c.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY) != 0;
+	}
+
+	/**
+	 * An existing data row.
+	 */
+	private static final class Row {
+		private final long id;
+		private final Object type;
+		private final String key;
+		private boolean used = false;
+
+		Row(long id, Object type, String key) {
+			this.id = id;
+			this.type = type;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Reads and writes the rows of one mimetype.
+	 */
+	private abstract static class DataKind<T extends ListRawData<?>> {
+		private final String mimetype;
+
+		DataKind(String mimetype) {
+			this.mimetype = mimetype;
+		}
+
+		/**
+		 * @return type of the row as ContactConstants-Type.
+		 */
+		abstract Object getType(Cursor c);
+
+		abstract String getKey(Cursor c);
+
+		abstract String getKey(T item);
+
+		abstract void update(ContactOperations op, T item, Uri uri);
+
+		abstract void add(ContactOperations op, T item);
+	}
+
+	/**
+	 * Kind of the types which only have data, type and label.
+	 */
+	private abstract static class ListKind<E> extends
+			DataKind<ListRawData<E>> {
+
+		ListKind(String mimetype) {
+			super(mimetype);
+		}
+
+		abstract E toType(int androidType);
+
+		@Override
+		Object getType(Cursor c) {
+			return toType(c.getInt(DataQuery.COLUMN_DATA2));
+		}
+
+		@Override
+		String getKey(Cursor c) {
+			return createKey(getType(c), isPrimary(c), isSuperPrimary(c),
+					c.getString(DataQuery.COLUMN_DATA1),
+					c.getString(DataQuery.COLUMN_DATA3));
+		}
+
+		@Override
+		String getKey(ListRawData<E> item) {
+			return createKey(item.getType(), item.isPrimary(),
+					item.isSuperPrimary(), item.getData(), item.getLabel());
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import java.util.Date;
+import java.util.List;
+
+import org.spongycastle.crypto.Digest;
+import org.spongycastle.crypto.digests.MD5Digest;
+
+import android.util.Base64;
+
+import com.ntsync.shared.ListRawData;
+import com.ntsync.shared.ListRawData.RawAddressData;
+import com.ntsync.shared.ListRawData.RawImData;
+import com.ntsync.shared.ListRawData.RawOrganizationData;
+import com.ntsync.shared.RawContact;
+
+/**
+ * Creates a hash over all values of a contact from the server. The hash of the
+ * last applied values is saved in the raw contact, so that a contact which is
+ * sent again with the same values doesn't have to be written again.
+ */
+final class ContactFingerprint {
+
+	/** Version of the hash calculation, part of the hash. */
+	private static final int VERSION = 1;
+
+	private ContactFingerprint() {
+	}
+
+	/**
+	 * @param withPhoto
+	 *            false if the photo is not applied (restricted account)
+	 * @return hash of the values of the contact
+	 */
+	static String create(RawContact rawContact, boolean withPhoto) {
+		Digest digest = new MD5Digest();
+		updateInt(digest, VERSION);
+		update(digest, rawContact.getFirstName());
+		update(digest, rawContact.getLastName());
+		update(digest, rawContact.getFullName());
+		update(digest, rawContact.getMiddleName());
+		update(digest, rawContact.getPrefixName());
+		update(digest, rawContact.getSuffixName());
+		update(digest, rawContact.getPhoneticGivenName());
+		update(digest, rawContact.getPhoneticMiddleName());
+		update(digest, rawContact.getPhoneticFamilyName());
+		updateList(digest, rawContact.getPhone());
+		updateList(digest, rawContact.getEmail());
+		updateList(digest, rawContact.getWebsite());
+		updateList(digest, rawContact.getEvents());
+		updateList(digest, rawContact.getNicknames());
+		updateList(digest, rawContact.getRelations());
+
+		List<RawAddressData> addresses = rawContact.getAddress();
+		updateInt(digest, addresses != null ? addresses.size() : -1);
+		if (addresses != null) {
+			for (RawAddressData address : addresses) {
+				update(digest, address);
+				update(digest, address.getStreet());
+				update(digest, address.getPobox());
+				update(digest, address.getNeighborhood());
+				update(digest, address.getCity());
+				update(digest, address.getRegion());
+				update(digest, address.getPostcode());
+				update(digest, address.getCountry());
+			}
+		}
+		List<RawImData> imAddresses = rawContact.getImAddresses();
+		updateInt(digest, imAddresses != null ? imAddresses.size() : -1);
+		if (imAddresses != null) {
+			for (RawImData imAddress : imAddresses) {
+				update(digest, imAddress);
+				update(digest, String.valueOf(imAddress.getProtType()));
+				update(digest, imAddress.getCustomProtocolName());
+			}
+		}
+
+		update(digest, rawContact.getNote());
+		RawOrganizationData org = rawContact.getOrganization();
+		updateInt(digest, org != null ? 1 : 0);
+		if (org != null) {
+			update(digest, org);
+			update(digest, org.getTitle());
+			update(digest, org.getDepartment());
+			update(digest, org.getJobDescription());
+		}
+
+		List<String> groupSourceIds = rawContact.getGroupSourceIds();
+		updateInt(digest, groupSourceIds != null ? groupSourceIds.size() : -1);
+		if (groupSourceIds != null) {
+			for (String groupSourceId : groupSourceIds) {
+				update(digest, groupSourceId);
+			}
+		}
+		List<Long> groupIds = rawContact.getGroupIds();
+		updateInt(digest, groupIds != null ? groupIds.size() : -1);
+		if (groupIds != null) {
+			for (Long groupId : groupIds) {
+				updateLong(digest, groupId != null ? groupId.longValue() : -1);
+			}
+		}
+
+		updateInt(digest, rawContact.isStarred() ? 1 : 0);
+		update(digest, rawContact.getDroidCustomRingtone());
+		updateInt(digest, rawContact.isSendToVoiceMail() ? 1 : 0);
+		Date lastModified = rawContact.getLastModified();
+		updateLong(digest, lastModified != null ? lastModified.getTime() : -1);
+
+		byte[] photo = withPhoto ? rawContact.getPhoto() : null;
+		updateInt(digest, withPhoto ? 1 : 0);
+		updateInt(digest, photo != null ? photo.length : -1);
+		if (photo != null) {
+			digest.update(photo, 0, photo.length);
+		}
+		updateInt(digest, rawContact.isPhotoSuperPrimary() ? 1 : 0);
+
+		byte[] resBuf = new byte[digest.getDigestSize()];
+		digest.doFinal(resBuf, 0);
+		return Base64.encodeToString(resBuf, Base64.NO_WRAP);
+	}
+
+	private static void updateList(Digest digest,
+			List<? extends ListRawData<?>> list) {
+		updateInt(digest, list != null ? list.size() : -1);
+		if (list != null) {
+			for (ListRawData<?> data : list) {
+				update(digest, data);
+			}
+		}
+	}
+
+	private static void update(Digest digest, ListRawData<?> data) {
+		update(digest, data.getData());
+		update(digest, String.valueOf(data.getType()));
+		update(digest, data.getLabel());
+		updateInt(digest, (data.isPrimary() ? 1 : 0)
+				| (data.isSuperPrimary() ? 2 : 0));
+	}
+
+	private static void update(Digest digest, String value) {
+		if (value == null) {
+			updateInt(digest, -1);
+			return;
+		}
+		int length = value.length();
+		updateInt(digest, length);
+		for (int i = 0; i < length; i++) {
+			char ch = value.charAt(i);
+			digest.update((byte) (ch >> 8));
+			digest.update((byte) ch);
+		}
+	}
+
+	private static void updateInt(Digest digest, int value) {
+		digest.update((byte) (value >> 24));
+		digest.update((byte) (value >> 16));
+		digest.update((byte) (value >> 8));
+		digest.update((byte) value);
+	}
+
+	private static void updateLong(Digest digest, long value) {
+		updateInt(digest, (int) (value >> 32));
+		updateInt(digest, (int) value);
+	}
+}
@@ -38,17 +38,18 @@ package com.ntsync.android.sync.platform;
 
 import static com.ntsync.android.sync.shared.LogHelper.logWCause;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.spongycastle.crypto.Digest;
 import org.spongycastle.crypto.digests.MD5Digest;
@@ -63,13 +64,16 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.OperationApplicationException;
+import android.content.SyncResult;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources.NotFoundException;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.Event;
@@ -118,7 +122,37 @@ import com.ntsync.shared.Restrictions;
  */
 public final class ContactManager {
 
-	private static final int BATCH_SIZE = 50;
+	/** Count of contacts which are loaded with one query. */
+	private static final int LOAD_BATCH_SIZE = 50;
+
+	/**
+	 * Max. count of arguments in one IN-Selection (SQLite allows 999 host
+	 * parameters per statement).
+	 */
+	private static final int MAX_SELECTION_ARGS = 500;
+
+	/** Max. count of dirty contacts which are sent in one sync. */
+	private static final int SYNC_PAGE_SIZE = 250;
+
+	/**
+	 * Max. size of the photos which are sent in one sync. A larger photo is
+	 * sent alone.
+	 */
+	private static final int SYNC_PAGE_PHOTO_SIZE = 2 * 1024 * 1024;
+
+	/**
+	 * Start time (elapsed realtime) of the last complete scan for modified
+	 * contacts per account.
+	 */
+	private static final Map<String, Long> CLIENT_MOD_SCANS = new ConcurrentHashMap<String, Long>();
+
+	/** Locks for updating the contacts of an account, by account name */
+	private static final ConcurrentMap<String, Object> ACCOUNT_LOCKS = new ConcurrentHashMap<String, Object>();
+
+	private static final String[] COUNT_PROJECTION = new String[] { "COUNT(*)" };
+
+	/** False if the contacts provider doesn't allow COUNT(*) as column. */
+	private static volatile boolean countProjectionSupported = true;
 
 	private ContactManager() {
 
@@ -138,23 +172,36 @@ public final class ContactManager {
 	 *            The username for the account
 	 * @param rawContacts
 	 *            The list of contacts to update
-	 * @param lastSyncMarker
-	 *            The previous server sync-state
+	 * @param groupIndex
+	 *            groups of the account
+	 * @param pendingContactIds
+	 *            dirty contacts which are sent with the next pages, the
+	 *            server values are not applied to them. Can be null.
 	 * @return updated RawContactIds (without new/deleted Records)
 	 * @throws OperationApplicationException
 	 * @throws IOException
 	 *             when saving a photo failed.
 	 */
-	public static synchronized Set<Long> updateContacts(Context context,
-			String account, List<RawContact> rawContacts, boolean inSync,
-			Restrictions restr) throws OperationApplicationException,
-			IOException {
+	public static Set<Long> updateContacts(Context context, String account,
+			List<RawContact> rawContacts, boolean inSync, Restrictions restr,
+			GroupIndex groupIndex, Set<Long> pendingContactIds)
+			throws OperationApplicationException, IOException {
+		// Other accounts can be updated at the same time
+		synchronized (getAccountLock(account)) {
+			return applyContacts(context, account, rawContacts, inSync, restr,
+					groupIndex, pendingContactIds);
+		}
+	}
+
+	private static Set<Long> applyContacts(Context context, String account,
+			List<RawContact> rawContacts, boolean inSync, Restrictions restr,
+			GroupIndex groupIndex, Set<Long> pendingContactIds)
+			throws OperationApplicationException, IOException {
 
 		final ContentResolver resolver = context.getContentResolver();
 		final BatchOperation batchOperation = new BatchOperation(resolver);
 
 		Log.i(TAG, "In updateContacts");
-		Map<String, Long> cachedGroupIds = new HashMap<String, Long>();
 		int insertIndex = 0;
 
 		Set<Long> updatedIds = new HashSet<Long>();
@@ -163,89 +210,202 @@ public final class ContactManager {
 		String rawContentUri = RawContacts.CONTENT_URI.toString();
 		List<RawContact> toValidateContact = new ArrayList<RawContact>();
 
-		for (final RawContact rawContact : rawContacts) {
+		boolean photoSupported = restr == null || restr.isPhotoSyncSupported();
+		// Existing contacts with the fingerprint of the contacts which were
+		// not changed locally since they were applied.
+		Map<Long, String> existingContacts = readExistingContacts(resolver,
+				rawContacts);
+		int unchangedCount = 0;
+		int pendingCount = 0;
+
+		// Classify the contacts first, so that only the photos of the written
+		// contacts are scaled.
+		List<RawContact> toWrite = new ArrayList<RawContact>(
+				rawContacts.size());
+		List<String> fingerprints = new ArrayList<String>(rawContacts.size());
+		for (RawContact rawContact : rawContacts) {
 			final long rawContactId = rawContact.getRawContactId();
-			boolean calcHash = rawContact.getPhoto() != null;
-			if (rawContactId > 0) {
-				if (!rawContact.isDeleted()) {
-					toValidateContact.add(rawContact);
-					// Check if Contact is available
-					if (isRawContactAvailable(resolver, rawContactId)) {
-						Log.d(TAG, "Update Contact " + rawContact.getBestName());
-						updateContact(context, resolver, rawContact, inSync,
-								rawContactId, batchOperation, cachedGroupIds,
-								account, restr);
-						if (calcHash) {
-							photoRawIdContacts.add(rawContactId);
+			if (pendingContactIds != null
+					&& pendingContactIds.contains(rawContactId)) {
+				// Local changes are not uploaded yet, they replace the
+				// server values with a following page.
+				pendingCount++;
+				continue;
+			}
+			String fingerprint = null;
+			if (inSync && !rawContact.isDeleted()) {
+				fingerprint = ContactFingerprint.create(rawContact,
+						photoSupported);
+			}
+			if (rawContactId > 0 && fingerprint != null
+					&& fingerprint.equals(existingContacts.get(rawContactId))) {
+				// Same values as the last time, nothing to write
+				updatedIds.add(rawContactId);
+				unchangedCount++;
+				continue;
+			}
+			toWrite.add(rawContact);
+			fingerprints.add(fingerprint);
+		}
+
+		PhotoProcessor photoProcessor = new PhotoProcessor(
+				PhotoHelper.getDisplaySize(context));
+		batchOperation.setPhotoProcessor(photoProcessor);
+		try {
+			// Scale the photos of about one batch ahead in the background, so
+			// that the next batch is prepared while a batch is applied.
+			int prefetchCount = PhotoProcessor.MIN_PREFETCH_COUNT;
+			int prefetchIndex = 0;
+			int batchStart = 0;
+			for (int i = 0; i < toWrite.size(); i++) {
+				if (photoSupported) {
+					prefetchIndex = prefetchPhotos(photoProcessor, toWrite,
+							prefetchIndex, i + 1 + prefetchCount);
+				}
+				final RawContact rawContact = toWrite.get(i);
+				final String fingerprint = fingerprints.get(i);
+				final long rawContactId = rawContact.getRawContactId();
+				boolean calcHash = rawContact.getPhoto() != null;
+				if (rawContactId > 0) {
+					if (!rawContact.isDeleted()) {
+						toValidateContact.add(rawContact);
+						// Check if Contact is available
+						if (existingContacts.containsKey(rawContactId)) {
+							Log.d(TAG,
+									"Update Contact " + rawContact.getBestName());
+							updateContact(context, resolver, rawContact,
+									inSync, rawContactId, batchOperation,
+									groupIndex, account, restr, fingerprint);
+							if (calcHash) {
+								photoRawIdContacts.add(rawContactId);
+							}
+							updatedIds.add(rawContactId);
+						} else {
+							Log.d(TAG,
+									"Add Contact " + rawContact.getBestName());
+							addContact(context, account, rawContact, inSync,
+									fingerprint, batchOperation);
+							if (calcHash) {
+								insertList.add(insertIndex);
+							}
+							insertIndex++;
 						}
-						updatedIds.add(rawContactId);
 					} else {
-						Log.d(TAG, "Add Contact " + rawContact.getBestName());
+						Log.d(TAG, "Delete Contact " + rawContactId);
+						deleteContact(context, rawContactId, batchOperation,
+								account);
+					}
+				} else {
+					if (!rawContact.isDeleted()) {
+						Log.d(TAG, "In addContact");
+						toValidateContact.add(rawContact);
 						addContact(context, account, rawContact, inSync,
-								batchOperation);
+								fingerprint, batchOperation);
 						if (calcHash) {
 							insertList.add(insertIndex);
 						}
 						insertIndex++;
 					}
-				} else {
-					Log.d(TAG, "Delete Contact " + rawContactId);
-					deleteContact(context, rawContactId, batchOperation,
-							account);
 				}
-			} else {
-				if (!rawContact.isDeleted()) {
-					Log.d(TAG, "In addContact");
-					toValidateContact.add(rawContact);
-					addContact(context, account, rawContact, inSync,
-							batchOperation);
-					if (calcHash) {
-						insertList.add(insertIndex);
+				photoProcessor.release(rawContact.getPhoto());
+
+				// A sync adapter should batch operations on multiple contacts,
+				// because it will make a dramatic performance difference.
+				// (UI updates, etc)
+				if (batchOperation.isFull()) {
+					// The next batch has about as many contacts as this one
+					prefetchCount = Math.max(PhotoProcessor.MIN_PREFETCH_COUNT,
+							i + 1 - batchStart);
+					batchStart = i + 1;
+					if (photoSupported) {
+						prefetchIndex = prefetchPhotos(photoProcessor, toWrite,
+								prefetchIndex, batchStart + prefetchCount);
 					}
-					insertIndex++;
+					processUpdateOps(context, batchOperation, resolver,
+							photoRawIdContacts, insertList, rawContentUri,
+							toValidateContact);
+					insertIndex = 0;
 				}
 			}
-
-			// A sync adapter should batch operations on multiple contacts,
-			// because it will make a dramatic performance difference.
-			// (UI updates, etc)
-			if (batchOperation.size() >= BATCH_SIZE
-					|| batchOperation.isBlobSizeBig()) {
-				processUpdateOps(context, batchOperation, resolver,
-						photoRawIdContacts, insertList, rawContentUri,
-						toValidateContact);
-				insertIndex = 0;
-			}
+			processUpdateOps(context, batchOperation, resolver,
+					photoRawIdContacts, insertList, rawContentUri,
+					toValidateContact);
+		} finally {
+			photoProcessor.shutdown();
+			ContactCountCache.invalidate(account);
+		}
+		LogHelper.logD(TAG, "{} unchanged contacts skipped",
+				Integer.valueOf(unchangedCount));
+		if (pendingCount > 0) {
+			LogHelper.logI(TAG, "Server values of " + pendingCount
+					+ " contacts with pending local changes not applied");
 		}
-		processUpdateOps(context, batchOperation, resolver, photoRawIdContacts,
-				insertList, rawContentUri, toValidateContact);
 
 		return updatedIds;
 	}
 
 	/**
-	 * Update client Modification Date for all Accounts.
+	 * Reads which contacts of the list exist with a few bulk queries. The
+	 * fingerprint is only returned for contacts which are not dirty, a dirty
+	 * contact has local changes which are not on the server.
 	 * 
-	 * @param context
+	 * @return fingerprint (or null) for the raw contact id of all existing
+	 *         contacts
 	 */
-	public static void checkForModifications(Context context) {
-		AccountManager acm = AccountManager.get(context);
-		Account[] accounts = acm.getAccountsByType(Constants.ACCOUNT_TYPE);
-		for (Account account : accounts) {
+	private static Map<Long, String> readExistingContacts(
+			ContentResolver resolver, List<RawContact> rawContacts) {
+		List<String> ids = new ArrayList<String>();
+		for (RawContact rawContact : rawContacts) {
+			if (!rawContact.isDeleted() && rawContact.getRawContactId() > 0) {
+				ids.add(String.valueOf(rawContact.getRawContactId()));
+			}
+		}
+		Map<Long, String> existingContacts = new HashMap<Long, String>();
+		for (int start = 0; start < ids.size(); start += MAX_SELECTION_ARGS) {
+			List<String> chunk = ids.subList(start,
+					Math.min(ids.size(), start + MAX_SELECTION_ARGS));
+			Cursor c = resolver.query(RawContactFingerprintQuery.CONTENT_URI,
+					RawContactFingerprintQuery.PROJECTION,
+					createInSelection(RawContacts._ID, chunk.size()),
+					chunk.toArray(new String[chunk.size()]), null);
 			try {
-				updateClientModDate(context, account);
-			} catch (IOException e) {
-				if (Log.isLoggable(TAG, Log.WARN)) {
-					Log.w(TAG, "Update ClientModificationDate failed for "
-							+ account.name, e);
-				}
-			} catch (OperationApplicationException e) {
-				if (Log.isLoggable(TAG, Log.WARN)) {
-					Log.w(TAG, "Update ClientModificationDate failed for "
-							+ account.name, e);
+				while (c.moveToNext()) {
+					String fingerprint = c
+							.getString(RawContactFingerprintQuery.COLUMN_FINGERPRINT);
+					if (c.getInt(RawContactFingerprintQuery.COLUMN_DIRTY) != 0
+							|| c.isNull(RawContactFingerprintQuery.COLUMN_CLIENT_VERSION)
+							|| c.getLong(RawContactFingerprintQuery.COLUMN_VERSION) != c
+									.getLong(RawContactFingerprintQuery.COLUMN_CLIENT_VERSION)) {
+						fingerprint = null;
+					}
+					existingContacts.put(
+							c.getLong(RawContactFingerprintQuery.COLUMN_ID),
+							fingerprint);
 				}
+			} finally {
+				c.close();
+			}
+		}
+		return existingContacts;
+	}
+
+	/**
+	 * Starts scaling the photos of the contacts from startIndex up to
+	 * endIndex (exclusive).
+	 * 
+	 * @return index of the next contact to prefetch
+	 */
+	private static int prefetchPhotos(PhotoProcessor photoProcessor,
+			List<RawContact> contacts, int startIndex, int endIndex) {
+		int index = startIndex;
+		int end = Math.min(endIndex, contacts.size());
+		while (index < end) {
+			RawContact contact = contacts.get(index++);
+			if (!contact.isDeleted()) {
+				photoProcessor.prepare(contact.getPhoto());
 			}
 		}
+		return index;
 	}
 
 	private static void processUpdateOps(Context context,
@@ -293,26 +453,38 @@ public final class ContactManager {
 	private static void validateClientModVersion(List<RawContact> rawContacts,
 			final ContentResolver resolver, final BatchOperation batchOperation)
 			throws OperationApplicationException {
-		// Validate Version
+		// Collect the ids of the applied contacts, so that the versions can be
+		// read with one query for the whole batch.
+		List<String> rawIds = new ArrayList<String>();
+		List<String> serverIds = new ArrayList<String>();
 		for (final RawContact rawContact : rawContacts) {
 			if (rawContact.isDeleted()) {
 				continue;
 			}
 			final long rawContactId = rawContact.getRawContactId();
-
-			String selection;
-			String[] selArgs;
 			if (rawContactId > 0) {
-				selection = RawContactQuery.SELECTION;
-				selArgs = new String[] { String.valueOf(rawContactId) };
-			} else {
-				selection = RawContactQuery.SERVER_SELECTION;
-				selArgs = new String[] { String.valueOf(rawContact
-						.getServerContactId()) };
+				rawIds.add(String.valueOf(rawContactId));
+			} else if (rawContact.getServerContactId() != null) {
+				serverIds.add(rawContact.getServerContactId());
 			}
-			// Search bei RawContactId
+		}
+		validateClientModVersion(resolver, batchOperation, RawContacts._ID,
+				rawIds);
+		validateClientModVersion(resolver, batchOperation,
+				RawContacts.SOURCE_ID, serverIds);
+		batchOperation.execute();
+	}
+
+	private static void validateClientModVersion(
+			final ContentResolver resolver,
+			final BatchOperation batchOperation, String column, List<String> ids) {
+		for (int start = 0; start < ids.size(); start += MAX_SELECTION_ARGS) {
+			List<String> chunk = ids.subList(start,
+					Math.min(ids.size(), start + MAX_SELECTION_ARGS));
 			Cursor c = resolver.query(RawContactQuery.CONTENT_URI,
-					RawContactQuery.PROJECTION_FULL, selection, selArgs, null);
+					RawContactQuery.PROJECTION_FULL,
+					createInSelection(column, chunk.size()),
+					chunk.toArray(new String[chunk.size()]), null);
 			try {
 				while (c.moveToNext()) {
 					long currVersion = c
@@ -321,10 +493,9 @@ public final class ContactManager {
 							.isNull(RawContactQuery.COLUMN_CLIENT_VERSION) ? -1
 							: c.getLong(RawContactQuery.COLUMN_CLIENT_VERSION);
 					if (currVersion != myVersion) {
-						final ContactOperations contactOp = ContactOperations
-								.updateExistingContact(rawContactId, true,
-										batchOperation);
 						final long id = c.getLong(RawContactQuery.COLUMN_ID);
+						final ContactOperations contactOp = ContactOperations
+								.updateExistingContact(id, true, batchOperation);
 						final Uri uri = ContentUris.withAppendedId(
 								RawContactQuery.CONTENT_URI, id);
 						contactOp.updateClientMod(currVersion, null, uri);
@@ -334,7 +505,29 @@ public final class ContactManager {
 				c.close();
 			}
 		}
-		batchOperation.execute();
+	}
+
+	/**
+	 * Creates a selection "column IN (?,?,...)" for the given count of
+	 * arguments.
+	 * 
+	 * @param column
+	 * @param argCount
+	 *            has to be smaller or equal than {@link #MAX_SELECTION_ARGS}
+	 * @return selection
+	 */
+	private static String createInSelection(String column, int argCount) {
+		StringBuilder selection = new StringBuilder(column.length() + 6
+				+ argCount * 2);
+		selection.append(column).append(" IN (");
+		for (int i = 0; i < argCount; i++) {
+			if (i > 0) {
+				selection.append(',');
+			}
+			selection.append('?');
+		}
+		selection.append(')');
+		return selection.toString();
 	}
 
 	/**
@@ -351,28 +544,23 @@ public final class ContactManager {
 		// generated from the system.
 		// Read photo
 		final ContentResolver resolver = context.getContentResolver();
-		final Cursor c = resolver.query(DataQuery.CONTENT_URI,
-				DataQuery.PROJECTION, DataQuery.SELECTION_TYPE,
+		final Cursor c = resolver.query(PhotoBlobQuery.CONTENT_URI,
+				PhotoBlobQuery.PROJECTION, PhotoBlobQuery.SELECTION_TYPE,
 				new String[] { String.valueOf(rawContactId),
 						Photo.CONTENT_ITEM_TYPE }, null);
 		try {
 			while (c.moveToNext()) {
-				byte[] photo = c.getBlob(DataQuery.COLUMN_PHOTO_IMAGE);
+				byte[] photo = c.getBlob(PhotoBlobQuery.COLUMN_PHOTO);
 				if (photo != null) {
-					// Generate Hash
-					Digest digest = new MD5Digest();
-					byte[] resBuf = new byte[digest.getDigestSize()];
-					digest.update(photo, 0, photo.length);
-					digest.doFinal(resBuf, 0);
-					String hash = Base64.encodeToString(resBuf, Base64.DEFAULT);
-					int currVersion = c.getInt(DataQuery.COLUMN_VERSION);
+					String hash = createPhotoHash(photo);
+					int currVersion = c.getInt(PhotoBlobQuery.COLUMN_VERSION);
 					int newVersion = currVersion++;
 
 					// Set Hash
 					final ContactOperations contactOp = ContactOperations
 							.updateExistingContact(rawContactId, true,
 									batchOperation);
-					final long id = c.getLong(DataQuery.COLUMN_ID);
+					final long id = c.getLong(PhotoBlobQuery.COLUMN_ID);
 					final Uri uri = ContentUris.withAppendedId(
 							Data.CONTENT_URI, id);
 					contactOp.updatePhotoHash(hash, newVersion, uri);
@@ -383,6 +571,17 @@ public final class ContactManager {
 		}
 	}
 
+	/**
+	 * Creates the hash value of a photo, which is saved in Photo.SYNC1.
+	 */
+	private static String createPhotoHash(byte[] photo) {
+		Digest digest = new MD5Digest();
+		byte[] resBuf = new byte[digest.getDigestSize()];
+		digest.update(photo, 0, photo.length);
+		digest.doFinal(resBuf, 0);
+		return Base64.encodeToString(resBuf, Base64.DEFAULT);
+	}
+
 	/**
 	 * Create an Intent for showing the Contact/People App
 	 * 
@@ -447,18 +646,28 @@ public final class ContactManager {
 	 *            The username for the account
 	 * @param rawContacts
 	 *            The list of contacts to update
-	 * @param lastSyncMarker
-	 *            The previous server sync-state
+	 * @param groupIndex
+	 *            groups of the account, new and deleted groups are updated.
 	 * @return updated Groups (without new /deleted Groups)
 	 * @throws OperationApplicationException
 	 */
-	public static synchronized Set<Long> updateGroups(Context context,
-			String accountName, List<ContactGroup> contactGroups)
+	public static Set<Long> updateGroups(Context context, String accountName,
+			List<ContactGroup> contactGroups, GroupIndex groupIndex)
+			throws OperationApplicationException {
+		synchronized (getAccountLock(accountName)) {
+			return applyGroups(context, accountName, contactGroups, groupIndex);
+		}
+	}
+
+	private static Set<Long> applyGroups(Context context, String accountName,
+			List<ContactGroup> contactGroups, GroupIndex groupIndex)
 			throws OperationApplicationException {
 
 		final ContentResolver resolver = context.getContentResolver();
 		final BatchOperation batchOperation = new BatchOperation(resolver);
 		Set<Long> updatedIds = new HashSet<Long>();
+		// SourceIds of the new groups by the index of the insert operation
+		Map<Integer, String> insertedGroups = new HashMap<Integer, String>();
 
 		Log.i(TAG, "In updateGroups");
 		for (final ContactGroup group : contactGroups) {
@@ -468,7 +677,7 @@ public final class ContactManager {
 				continue;
 			}
 
-			Long gId = isGroupAvailable(resolver, sourceId, accountName);
+			Long gId = groupIndex.getRowId(sourceId);
 			if (!group.isDeleted()) {
 				// Check if Contact is available
 				if (gId != null) {
@@ -477,55 +686,73 @@ public final class ContactManager {
 					updatedIds.add(gId);
 				} else {
 					Log.d(TAG, "Add Group " + group.getTitle());
+					insertedGroups.put(batchOperation.size(), sourceId);
 					addGroup(accountName, group, true, batchOperation);
 				}
 			} else if (gId != null) {
 				Log.d(TAG, "Delete Group " + gId);
 				deleteContactGroup(gId, batchOperation);
+				groupIndex.remove(gId);
 			}
 			// A sync adapter should batch operations on multiple contacts,
 			// because it will make a dramatic performance difference.
 			// (UI updates, etc)
-			if (batchOperation.size() >= BATCH_SIZE) {
-				batchOperation.execute();
+			if (batchOperation.isFull()) {
+				processGroupOps(batchOperation, insertedGroups, groupIndex);
 			}
 		}
-		batchOperation.execute();
+		processGroupOps(batchOperation, insertedGroups, groupIndex);
+		ContactCountCache.invalidate(accountName);
 		return updatedIds;
 	}
 
+	/**
+	 * @return lock for updating the contacts and groups of the account
+	 */
+	private static Object getAccountLock(String accountName) {
+		Object lock = ACCOUNT_LOCKS.get(accountName);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = ACCOUNT_LOCKS.putIfAbsent(accountName, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+
+	/**
+	 * Executes the batch and adds the inserted groups to the index.
+	 */
+	private static void processGroupOps(BatchOperation batchOperation,
+			Map<Integer, String> insertedGroups, GroupIndex groupIndex)
+			throws OperationApplicationException {
+		List<Uri> uris = batchOperation.execute();
+		for (Map.Entry<Integer, String> entry : insertedGroups.entrySet()) {
+			Uri uri = uris.get(entry.getKey());
+			if (uri != null) {
+				groupIndex.put(ContentUris.parseId(uri), entry.getValue());
+			}
+		}
+		insertedGroups.clear();
+	}
+
 	/**
 	 * @param context
 	 * @param account
 	 * @return count of groups which are not dirty
 	 */
 	private static int getNotDirtyGroupCount(Context context, Account account) {
-		final ContentResolver resolver = context.getContentResolver();
-		final Cursor c = resolver.query(GroupQuery.CONTENT_URI,
+		return countRows(context.getContentResolver(), GroupQuery.CONTENT_URI,
 				GroupQuery.PROJECTION, GroupQuery.SELECTION_NOTDIRTY,
-				new String[] { account.name }, null);
-		int count;
-		try {
-			count = c.getCount();
-		} finally {
-			c.close();
-		}
-		return count;
+				new String[] { account.name });
 	}
 
 	private static int getNotDirtyContactCount(Context context, Account account) {
-		final ContentResolver resolver = context.getContentResolver();
-		final Cursor c = resolver.query(RawContactAllQuery.CONTENT_URI,
-				RawContactAllQuery.PROJECTION,
+		return countRows(context.getContentResolver(),
+				RawContactAllQuery.CONTENT_URI, RawContactAllQuery.PROJECTION,
 				RawContactAllQuery.SELECTION_NOTDIRTY,
-				new String[] { account.name }, null);
-		int count;
-		try {
-			count = c.getCount();
-		} finally {
-			c.close();
-		}
-		return count;
+				new String[] { account.name });
 	}
 
 	/**
@@ -533,20 +760,13 @@ public final class ContactManager {
 	 * @param context
 	 * @param account
 	 * @return Count of all contacts
+	 * @see ContactCountCache
 	 */
 	public static int getContactCount(Context context, Account account) {
-		final ContentResolver resolver = context.getContentResolver();
-		final Cursor c = resolver.query(RawContactAllQuery.CONTENT_URI,
-				RawContactAllQuery.PROJECTION,
+		return countRows(context.getContentResolver(),
+				RawContactAllQuery.CONTENT_URI, RawContactAllQuery.PROJECTION,
 				RawContactAllQuery.SELECTION_NOTDELETED,
-				new String[] { account.name }, null);
-		int count;
-		try {
-			count = c.getCount();
-		} finally {
-			c.close();
-		}
-		return count;
+				new String[] { account.name });
 	}
 
 	/**
@@ -554,12 +774,51 @@ public final class ContactManager {
 	 * @param context
 	 * @param account
 	 * @return Count of all contacts
+	 * @see ContactCountCache
 	 */
 	public static int getContactGroupCount(Context context, Account account) {
-		final ContentResolver resolver = context.getContentResolver();
-		final Cursor c = resolver.query(GroupQuery.CONTENT_URI,
+		return countRows(context.getContentResolver(), GroupQuery.CONTENT_URI,
 				GroupQuery.PROJECTION, GroupQuery.SELECTION_NOTDELETED,
-				new String[] { account.name }, null);
+				new String[] { account.name });
+	}
+
+	/**
+	 * Counts the rows with a COUNT(*)-Query, so that the provider doesn't
+	 * have to fill a cursor window with all rows. If the provider doesn't
+	 * allow the aggregate column, the rows are counted with a cursor.
+	 * 
+	 * @param idProjection
+	 *            projection for counting with a cursor, should only contain
+	 *            the id.
+	 * @return count of rows
+	 */
+	private static int countRows(ContentResolver resolver, Uri uri,
+			String[] idProjection, String selection, String[] selectionArgs) {
+		if (countProjectionSupported) {
+			try {
+				final Cursor c = resolver.query(uri, COUNT_PROJECTION,
+						selection, selectionArgs, null);
+				if (c != null) {
+					try {
+						if (c.getCount() == 1 && c.moveToFirst()) {
+							return c.getInt(0);
+						}
+					} finally {
+						c.close();
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				// Provider with a strict projection map
+				countProjectionSupported = false;
+				LogHelper.logD(TAG, "COUNT-Query not supported", e);
+			} catch (SQLiteException e) {
+				countProjectionSupported = false;
+				LogHelper.logD(TAG, "COUNT-Query not supported", e);
+			}
+		}
+
+		final Cursor c = resolver.query(uri, idProjection, selection,
+				selectionArgs, null);
 		int count;
 		try {
 			count = c.getCount();
@@ -678,13 +937,22 @@ public final class ContactManager {
 
 	/**
 	 * Return a list of the local contacts that have been marked as "dirty", and
-	 * need syncing to the server.
+	 * need syncing to the server. The list is limited to one page (by count
+	 * and photo size), the remaining contacts are sent in the following syncs.
 	 * 
 	 * @param context
 	 *            The context of Authenticator Activity
 	 * @param account
 	 *            The account that we're interested in syncing
 	 * @param restr
+	 * @param syncResult
+	 *            moreRecordsToGet is set, when not all dirty contacts fitted
+	 *            into the page.
+	 * @param groupIndex
+	 *            groups of the account
+	 * @param pendingContactIds
+	 *            the ids of the dirty contacts which did not fit into the
+	 *            page are added.
 	 * @return a list of Users that are considered "dirty"
 	 * @throws IOException
 	 *             when photo files could not be loaded
@@ -692,8 +960,9 @@ public final class ContactManager {
 	 */
 	public static List<RawContact> getDirtyContacts(Context context,
 			Account account, Restrictions restr,
-			RestrictionConflictHandler conflictHandler) throws IOException,
-			OperationApplicationException {
+			RestrictionConflictHandler conflictHandler, SyncResult syncResult,
+			GroupIndex groupIndex, Set<Long> pendingContactIds)
+			throws IOException, OperationApplicationException {
 		Log.i(TAG, "*** Looking for local dirty contacts");
 		List<RawContact> dirtyContacts = new ArrayList<RawContact>();
 		List<RawContact> newContacts = new ArrayList<RawContact>();
@@ -704,8 +973,11 @@ public final class ContactManager {
 				new String[] { account.name }, null);
 
 		int delContactCount = 0;
+		int pendingContactCount = 0;
+		int pendingNewContactCount = 0;
+		List<Long> dirtyIds = new ArrayList<Long>();
+		Set<Long> newContactIds = new HashSet<Long>();
 		try {
-			Map<Long, String> cachedGroupIds = new HashMap<Long, String>();
 			while (c.moveToNext()) {
 				final long rawContactId = c
 						.getLong(DirtyQuery.COLUMN_RAW_CONTACT_ID);
@@ -738,21 +1010,20 @@ public final class ContactManager {
 					dirtyContacts.add(rawContact);
 					delContactCount++;
 				} else if (isDirty) {
-					RawContact rawContact = getRawContact(context,
-							rawContactId, cachedGroupIds, account.name, null,
-							restr, conflictHandler);
-					if (rawContact != null) {
-						if (Log.isLoggable(TAG, Log.INFO)) {
-							Log.i(TAG,
-									"Contact Name: " + rawContact.getBestName());
-						}
+					if (dirtyIds.size() >= SYNC_PAGE_SIZE) {
+						// Page is full: send contact in the next sync
+						pendingContactIds.add(rawContactId);
 						if (serverContactId == null) {
-							newContacts.add(rawContact);
+							pendingNewContactCount++;
 						} else {
-							dirtyContacts.add(rawContact);
+							pendingContactCount++;
 						}
+						continue;
+					}
+					dirtyIds.add(rawContactId);
+					if (serverContactId == null) {
+						newContactIds.add(rawContactId);
 					}
-
 				}
 			}
 
@@ -762,8 +1033,58 @@ public final class ContactManager {
 			}
 		}
 
+		// Load the dirty contacts with a few bulk queries
+		long photoSize = 0;
+		List<Long> pendingIds = new ArrayList<Long>();
+		boolean pageFull = false;
+		for (int start = 0; start < dirtyIds.size(); start += LOAD_BATCH_SIZE) {
+			List<Long> chunk = dirtyIds.subList(start,
+					Math.min(dirtyIds.size(), start + LOAD_BATCH_SIZE));
+			if (pageFull) {
+				pendingIds.addAll(chunk);
+				continue;
+			}
+			Map<Long, RawContact> loadedContacts = getRawContacts(context,
+					chunk, groupIndex, account.name, restr, conflictHandler);
+			for (Long rawContactId : chunk) {
+				RawContact rawContact = loadedContacts.get(rawContactId);
+				byte[] photo = rawContact.getPhoto();
+				int size = photo != null ? photo.length : 0;
+				if (pageFull
+						|| (photoSize > 0 && photoSize + size > SYNC_PAGE_PHOTO_SIZE)) {
+					// Page is full: send remaining contacts in the next sync
+					pageFull = true;
+					pendingIds.add(rawContactId);
+					continue;
+				}
+				photoSize += size;
+				if (Log.isLoggable(TAG, Log.INFO)) {
+					Log.i(TAG, "Contact Name: " + rawContact.getBestName());
+				}
+				if (newContactIds.contains(rawContactId)) {
+					newContacts.add(rawContact);
+				} else {
+					dirtyContacts.add(rawContact);
+				}
+			}
+		}
+		pendingContactIds.addAll(pendingIds);
+		for (Long rawContactId : pendingIds) {
+			if (newContactIds.contains(rawContactId)) {
+				pendingNewContactCount++;
+			} else {
+				pendingContactCount++;
+			}
+		}
+
+		if (pendingContactCount > 0 || pendingNewContactCount > 0) {
+			LogHelper.logI(TAG, "Dirty contacts for next sync: "
+					+ (pendingContactCount + pendingNewContactCount));
+			syncResult.moreRecordsToGet = true;
+		}
+
 		final int notNewContactCount = getNotDirtyContactCount(context, account)
-				+ dirtyContacts.size() - delContactCount;
+				+ dirtyContacts.size() - delContactCount + pendingContactCount;
 		int maxCount = restr != null ? restr.getMaxContactCount()
 				: Integer.MAX_VALUE;
 		// Add new Groups as long there is room for new contacts
@@ -772,7 +1093,7 @@ public final class ContactManager {
 			if (contactCount >= maxCount) {
 				// Notification
 				int totalLocalContacts = notNewContactCount
-						+ newContacts.size();
+						+ newContacts.size() + pendingNewContactCount;
 				if (conflictHandler != null) {
 					conflictHandler.onContactNotSynced(
 							contact.getRawContactId(), maxCount,
@@ -783,6 +1104,7 @@ public final class ContactManager {
 			dirtyContacts.add(contact);
 			contactCount++;
 		}
+		PhotoHashCache.getInstance(context).save(context);
 
 		return dirtyContacts;
 	}
@@ -790,10 +1112,14 @@ public final class ContactManager {
 	public static void updateClientModDate(Context context, Account account)
 			throws IOException, OperationApplicationException {
 		Log.i(TAG, "*** Looking for old modification date");
+		final long scanStart = SystemClock.elapsedRealtime();
 
 		final ContentResolver resolver = context.getContentResolver();
+		// Only contacts whose version moved past the saved version (SYNC3)
+		// are read, so the scan depends on the count of changed contacts
+		// and not on the size of the account.
 		final Cursor c = resolver.query(DirtyQuery.CONTENT_URI,
-				DirtyQuery.PROJECTION, DirtyQuery.SELECTION,
+				DirtyQuery.PROJECTION, DirtyQuery.SELECTION_VERSION_CHANGED,
 				new String[] { account.name }, null);
 		// iterate contact record of them, when version has changed -> set new
 		// modification date on contact-row and save new version
@@ -819,11 +1145,12 @@ public final class ContactManager {
 							System.currentTimeMillis(), rawContactUri);
 				}
 
-				if (batchOperation.size() >= BATCH_SIZE) {
+				if (batchOperation.isFull()) {
 					batchOperation.execute();
 				}
 			}
 			batchOperation.execute();
+			CLIENT_MOD_SCANS.put(account.name, scanStart);
 
 		} finally {
 			if (c != null) {
@@ -832,6 +1159,16 @@ public final class ContactManager {
 		}
 	}
 
+	/**
+	 * @return start time (see {@link SystemClock#elapsedRealtime()}) of the
+	 *         last scan of {@link #updateClientModDate(Context, Account)} for
+	 *         the account or 0 if the account was not scanned yet.
+	 */
+	public static long getLastClientModScan(String accountName) {
+		Long scanStart = CLIENT_MOD_SCANS.get(accountName);
+		return scanStart != null ? scanStart.longValue() : 0;
+	}
+
 	/**
 	 * Get all new Raw Ids with the corresponding Server Id.
 	 * 
@@ -869,7 +1206,7 @@ public final class ContactManager {
 	}
 
 	public static void saveGroupIds(Context context, String name,
-			Map<Long, String> newGroupIdMap)
+			Map<Long, String> newGroupIdMap, GroupIndex groupIndex)
 			throws OperationApplicationException {
 
 		final ContentResolver resolver = context.getContentResolver();
@@ -879,6 +1216,9 @@ public final class ContactManager {
 			setGroupSourceId(entry.getKey(), sourceId, batchOperation);
 		}
 		batchOperation.execute();
+		for (Map.Entry<Long, String> entry : newGroupIdMap.entrySet()) {
+			groupIndex.put(entry.getKey(), entry.getValue());
+		}
 	}
 
 	public static void saveContactIds(Context context, String accountname,
@@ -912,17 +1252,20 @@ public final class ContactManager {
 	 *            The list of contacts that we're cleaning up
 	 * @param newContactIdMap
 	 * @param updatedContactIds
+	 * @return count of contacts which are not dirty anymore
 	 * @throws OperationApplicationException
 	 */
-	public static void clearSyncFlags(Context context,
+	public static int clearSyncFlags(Context context,
 			List<RawContact> dirtyContacts, String accountName,
 			Map<Long, String> newContactIdMap, Set<Long> updatedContactIds)
 			throws OperationApplicationException {
 		Log.i(TAG, "*** Clearing Sync-related Flags");
 		final ContentResolver resolver = context.getContentResolver();
 		final BatchOperation batchOperation = new BatchOperation(resolver);
-		String[] selArgs = new String[] { null, null };
+		int clearedCount = 0;
 
+		List<RawContact> clearContacts = new ArrayList<RawContact>();
+		List<Long> checkIds = new ArrayList<Long>();
 		for (RawContact rawContact : dirtyContacts) {
 			if (rawContact.isDeleted()) {
 				if (Log.isLoggable(TAG, Log.INFO)) {
@@ -933,6 +1276,10 @@ public final class ContactManager {
 				}
 				deleteContact(context, rawContact.getRawContactId(),
 						batchOperation, accountName);
+				clearedCount++;
+				if (batchOperation.isFull()) {
+					batchOperation.execute();
+				}
 			} else if (rawContact.isDirty()) {
 				Long rawId = rawContact.getRawContactId();
 				if (newContactIdMap != null
@@ -942,37 +1289,45 @@ public final class ContactManager {
 					// Flags
 					continue;
 				}
-				long contactId = rawContact.getRawContactId();
-				long version = rawContact.getVersion();
-				// Only reset dirty if not changed in between or changed from
-				// server
-				boolean clearDirty = true;
+				clearContacts.add(rawContact);
 				if (updatedContactIds == null
-						|| !updatedContactIds.contains(contactId)) {
-					selArgs[0] = String.valueOf(contactId);
-					selArgs[1] = String.valueOf(version);
-					Cursor c = resolver.query(RawContactQuery.CONTENT_URI,
-							RawContactQuery.PROJECTION_ID,
-							RawContactQuery.VERSION_SELECTION, selArgs, null);
-					try {
-						clearDirty = c.moveToNext();
-					} finally {
-						c.close();
-					}
+						|| !updatedContactIds.contains(rawId)) {
+					checkIds.add(rawId);
 				}
+			}
+		}
 
-				if (clearDirty) {
-					if (Log.isLoggable(TAG, Log.INFO)) {
-						Log.i(TAG,
-								"Clearing dirty flag for: "
-										+ rawContact.getBestName());
-					}
+		Map<Long, Long> versions = readVersions(resolver,
+				RawContactQuery.CONTENT_URI, RawContacts._ID,
+				RawContacts.VERSION, checkIds);
+		for (RawContact rawContact : clearContacts) {
+			long contactId = rawContact.getRawContactId();
+			// Only reset dirty if not changed in between or changed from
+			// server
+			boolean clearDirty = true;
+			if (updatedContactIds == null
+					|| !updatedContactIds.contains(contactId)) {
+				Long currVersion = versions.get(contactId);
+				clearDirty = currVersion != null
+						&& currVersion.longValue() == rawContact.getVersion();
+			}
 
-					clearDirtyFlag(rawContact.getRawContactId(), batchOperation);
+			if (clearDirty) {
+				if (Log.isLoggable(TAG, Log.INFO)) {
+					Log.i(TAG,
+							"Clearing dirty flag for: "
+									+ rawContact.getBestName());
+				}
+
+				clearDirtyFlag(contactId, batchOperation);
+				clearedCount++;
+				if (batchOperation.isFull()) {
+					batchOperation.execute();
 				}
 			}
 		}
 		batchOperation.execute();
+		return clearedCount;
 	}
 
 	/**
@@ -993,7 +1348,9 @@ public final class ContactManager {
 		Log.i(TAG, "*** Clearing Sync-related Flags");
 		final ContentResolver resolver = context.getContentResolver();
 		final BatchOperation batchOperation = new BatchOperation(resolver);
-		String[] selArgs = new String[] { null, null };
+
+		List<ContactGroup> clearGroups = new ArrayList<ContactGroup>();
+		List<Long> checkIds = new ArrayList<Long>();
 		for (ContactGroup group : dirtyGroups) {
 			if (group.isDeleted()) {
 				if (Log.isLoggable(TAG, Log.INFO)) {
@@ -1009,39 +1366,73 @@ public final class ContactManager {
 					// For Groups which are not saved don't clear Dirty Flags
 					continue;
 				}
-
-				long version = group.getVersion();
-
-				boolean clearDirty = true;
+				clearGroups.add(group);
 				if (updatedGroupIds == null || !updatedGroupIds.contains(rawId)) {
-					// Only reset dirty if not changed in between or changed
-					// from server
-					selArgs[0] = String.valueOf(rawId);
-					selArgs[1] = String.valueOf(version);
-					Cursor c = resolver.query(GroupQuery.CONTENT_URI,
-							GroupQuery.PROJECTION,
-							GroupQuery.VERSION_SELECTION, selArgs, null);
-
-					try {
-						clearDirty = c.moveToNext();
-					} finally {
-						c.close();
-					}
+					checkIds.add(rawId);
 				}
+			}
+		}
 
-				if (clearDirty) {
-					if (Log.isLoggable(TAG, Log.INFO)) {
-						Log.i(TAG,
-								"Clearing dirty flag for: " + group.getTitle());
-					}
+		Map<Long, Long> versions = readVersions(resolver,
+				GroupQuery.CONTENT_URI, Groups._ID, Groups.VERSION, checkIds);
+		for (ContactGroup group : clearGroups) {
+			Long rawId = group.getRawId();
+			// Only reset dirty if not changed in between or changed
+			// from server
+			boolean clearDirty = true;
+			if (updatedGroupIds == null || !updatedGroupIds.contains(rawId)) {
+				Long currVersion = versions.get(rawId);
+				clearDirty = currVersion != null
+						&& currVersion.longValue() == group.getVersion();
+			}
 
-					clearGroupDirtyFlag(group.getRawId(), batchOperation);
+			if (clearDirty) {
+				if (Log.isLoggable(TAG, Log.INFO)) {
+					Log.i(TAG, "Clearing dirty flag for: " + group.getTitle());
 				}
+
+				clearGroupDirtyFlag(group.getRawId(), batchOperation);
 			}
 		}
 		batchOperation.execute();
 	}
 
+	/**
+	 * Reads the current versions of rows with one query per
+	 * {@link #MAX_SELECTION_ARGS} ids.
+	 * 
+	 * @param uri
+	 *            table of the rows
+	 * @param idColumn
+	 * @param versionColumn
+	 * @param ids
+	 * @return versions by id, ids of rows which don't exist anymore are
+	 *         missing.
+	 */
+	private static Map<Long, Long> readVersions(ContentResolver resolver,
+			Uri uri, String idColumn, String versionColumn, List<Long> ids) {
+		Map<Long, Long> versions = new HashMap<Long, Long>();
+		String[] projection = new String[] { idColumn, versionColumn };
+		for (int start = 0; start < ids.size(); start += MAX_SELECTION_ARGS) {
+			List<Long> chunk = ids.subList(start,
+					Math.min(ids.size(), start + MAX_SELECTION_ARGS));
+			String[] selArgs = new String[chunk.size()];
+			for (int i = 0; i < selArgs.length; i++) {
+				selArgs[i] = String.valueOf(chunk.get(i));
+			}
+			Cursor c = resolver.query(uri, projection,
+					createInSelection(idColumn, selArgs.length), selArgs, null);
+			try {
+				while (c.moveToNext()) {
+					versions.put(c.getLong(0), c.getLong(1));
+				}
+			} finally {
+				c.close();
+			}
+		}
+		return versions;
+	}
+
 	public static void clearServerId(Context context, Map<Long, String> newIdMap)
 			throws OperationApplicationException {
 		Log.i(TAG, "*** Clearing ServerId");
@@ -1058,77 +1449,43 @@ public final class ContactManager {
 	 * 
 	 * @param context
 	 * @param account
-	 * @throws OperationApplicationException
 	 */
-	public static void setDirtyFlag(Context context, Account account)
-			throws OperationApplicationException {
+	public static void setDirtyFlag(Context context, Account account) {
 		setContactGroupDirtyFlag(context, account);
 		setContactDirtyFlag(context, account);
 	}
 
-	public static void setContactGroupDirtyFlag(Context context, Account account)
-			throws OperationApplicationException {
+	/**
+	 * Set the Dirty Flag for all contactgroups with one update.
+	 * 
+	 * @param context
+	 * @param account
+	 */
+	public static void setContactGroupDirtyFlag(Context context, Account account) {
 		final ContentResolver resolver = context.getContentResolver();
-		final BatchOperation batchOperation = new BatchOperation(resolver);
-
-		final Cursor c = resolver.query(GroupQuery.CONTENT_URI,
-				GroupQuery.PROJECTION, GroupQuery.SELECTION_ALL,
-				new String[] { account.name }, null);
-		try {
-			while (c.moveToNext()) {
-				final long groupId = c.getLong(GroupQuery.COLUMN_ID);
-				final GroupOperations groupOp = GroupOperations
-						.updateExistingGroup(true, batchOperation);
-
-				final Uri uri = ContentUris.withAppendedId(Groups.CONTENT_URI,
-						groupId);
-				groupOp.updateDirtyFlag(true, uri);
-			}
-
-		} finally {
-			if (c != null) {
-				c.close();
-			}
-		}
-
-		batchOperation.execute();
+		final ContentValues values = new ContentValues();
+		values.put(Groups.DIRTY, 1);
+		int count = resolver.update(GroupDirtyQuery.CONTENT_URI, values,
+				GroupQuery.SELECTION_NOTDIRTY, new String[] { account.name });
+		LogHelper.logD(TAG, "Dirty flag set for {} groups",
+				Integer.valueOf(count));
 	}
 
 	/**
-	 * Set the Dirty Flag for all contacts
+	 * Set the Dirty Flag for all contacts with one update.
 	 * 
 	 * @param context
 	 * @param account
-	 * @throws OperationApplicationException
 	 */
-	public static void setContactDirtyFlag(Context context, Account account)
-			throws OperationApplicationException {
+	public static void setContactDirtyFlag(Context context, Account account) {
 		final ContentResolver resolver = context.getContentResolver();
-		final BatchOperation batchOperation = new BatchOperation(resolver);
-
-		final Cursor c = resolver.query(RawContactAllQuery.CONTENT_URI,
-				RawContactAllQuery.PROJECTION, RawContactAllQuery.SELECTION,
-				new String[] { account.name }, null);
-		try {
-			while (c.moveToNext()) {
-				final long rawContactId = c
-						.getLong(RawContactAllQuery.COLUMN_RAW_CONTACT_ID);
-				final ContactOperations contactOp = ContactOperations
-						.updateExistingContact(rawContactId, true,
-								batchOperation);
-
-				final Uri uri = ContentUris.withAppendedId(
-						RawContacts.CONTENT_URI, rawContactId);
-				contactOp.updateDirtyFlag(true, uri);
-			}
-
-		} finally {
-			if (c != null) {
-				c.close();
-			}
-		}
-
-		batchOperation.execute();
+		final ContentValues values = new ContentValues();
+		values.put(RawContacts.DIRTY, 1);
+		int count = resolver.update(RawContactAllQuery.CONTENT_URI, values,
+				RawContactAllQuery.SELECTION_NOTDIRTY,
+				new String[] { account.name });
+		LogHelper.logD(TAG, "Dirty flag set for {} contacts",
+				Integer.valueOf(count));
 	}
 
 	/**
@@ -1142,21 +1499,23 @@ public final class ContactManager {
 	 *            the sample SyncAdapter User object
 	 * @param inSync
 	 *            is the add part of a client-server sync?
+	 * @param fingerprint
+	 *            fingerprint of the applied server values or null
 	 * @param batchOperation
 	 *            allow us to batch together multiple operations into a single
 	 *            provider call
 	 * @throws IOException
 	 */
 	public static void addContact(Context context, String accountName,
-			RawContact rawContact, boolean inSync, BatchOperation batchOperation)
-			throws IOException {
+			RawContact rawContact, boolean inSync, String fingerprint,
+			BatchOperation batchOperation) throws IOException {
 
 		// Put the data in the contacts provider
 		final ContactOperations contactOp = ContactOperations.createNewContact(
 				rawContact.getServerContactId(), accountName,
 				rawContact.isStarred(), rawContact.getDroidCustomRingtone(),
 				rawContact.isSendToVoiceMail(), rawContact.getLastModified(),
-				inSync, batchOperation);
+				inSync, fingerprint, batchOperation);
 
 		contactOp.addName(rawContact.getFullName(), rawContact.getFirstName(),
 				rawContact.getLastName(), rawContact.getMiddleName(),
@@ -1767,14 +2126,20 @@ public final class ContactManager {
 	 * @param batchOperation
 	 *            allow us to batch together multiple operations into a single
 	 *            provider call
+	 * @param groupIndex
+	 *            groups of the account
 	 * @param accountName
+	 * @param fingerprint
+	 *            hash of the server values, saved for the next sync. Can be
+	 *            null.
 	 * @throws IOException
 	 * @throws
 	 */
 	public static void updateContact(Context context, ContentResolver resolver,
 			RawContact rawContact, boolean inSync, long rawContactId,
-			BatchOperation batchOperation, Map<String, Long> cachedGroupIds,
-			String accountName, Restrictions restr) throws IOException {
+			BatchOperation batchOperation, GroupIndex groupIndex,
+			String accountName, Restrictions restr, String fingerprint)
+			throws IOException {
 
 		boolean existingPhoto = false;
 		boolean existingNote = false;
@@ -1785,55 +2150,24 @@ public final class ContactManager {
 				new String[] { String.valueOf(rawContactId) }, null);
 		final ContactOperations contactOp = ContactOperations
 				.updateExistingContact(rawContactId, inSync, batchOperation);
+		final ContactDataDiff dataDiff = new ContactDataDiff(contactOp);
 
-		List<ListRawData<PhoneType>> orgPhones = rawContact.getPhone();
-		List<ListRawData<PhoneType>> phones = orgPhones != null ? new ArrayList<ListRawData<PhoneType>>(
-				orgPhones) : null;
-		List<ListRawData<EmailType>> orgEmails = rawContact.getEmail();
-		List<ListRawData<EmailType>> emails = orgEmails != null ? new ArrayList<ListRawData<EmailType>>(
-				orgEmails) : null;
-		List<ListRawData<WebsiteType>> orgWebsites = rawContact.getWebsite();
-		List<ListRawData<WebsiteType>> websites = orgWebsites != null ? new ArrayList<ListRawData<WebsiteType>>(
-				orgWebsites) : null;
-		List<ListRawData<EventType>> orgEvents = rawContact.getEvents();
-		List<ListRawData<EventType>> events = orgEvents != null ? new ArrayList<ListRawData<EventType>>(
-				orgEvents) : null;
-		List<ListRawData<NicknameType>> orgNicknames = rawContact
-				.getNicknames();
-		List<ListRawData<NicknameType>> nicknames = orgNicknames != null ? new ArrayList<ListRawData<NicknameType>>(
-				orgNicknames) : null;
-		List<ListRawData<RelationType>> orgRelations = rawContact
-				.getRelations();
-		List<ListRawData<RelationType>> relations = orgRelations != null ? new ArrayList<ListRawData<RelationType>>(
-				orgRelations) : null;
-		List<RawAddressData> orgAddresses = rawContact.getAddress();
-		List<RawAddressData> addresses = orgAddresses != null ? new ArrayList<RawAddressData>(
-				orgAddresses) : null;
-		List<RawImData> orgImAddresses = rawContact.getImAddresses();
-		List<RawImData> imAddresses = orgImAddresses != null ? new ArrayList<RawImData>(
-				orgImAddresses) : null;
 		List<String> orgGroupSourceIds = rawContact.getGroupSourceIds();
-		List<Long> groupIds = null;
+		Set<Long> groupIds = null;
 		if (orgGroupSourceIds != null) {
 			// Umwandeln SourceGroupId in Group Id
-			groupIds = new ArrayList<Long>();
+			groupIds = new LinkedHashSet<Long>();
 			for (String groupSourceId : orgGroupSourceIds) {
-				Long groupId = cachedGroupIds.get(groupSourceId);
-				if (groupId == null) {
-					groupId = isGroupAvailable(resolver, groupSourceId,
-							accountName);
-					if (groupId != null) {
-						cachedGroupIds.put(groupSourceId, groupId);
-					} else {
-						Log.e(TAG, "Group not found for GroupSourceId:"
-								+ groupSourceId);
-					}
-				}
+				Long groupId = groupIndex.getRowId(groupSourceId);
 				if (groupId != null) {
 					groupIds.add(groupId);
+				} else {
+					Log.e(TAG, "Group not found for GroupSourceId:"
+							+ groupSourceId);
 				}
 			}
 		}
+		RawOrganizationData org = rawContact.getOrganization();
 
 		try {
 
@@ -1844,9 +2178,11 @@ public final class ContactManager {
 				final String mimeType = c.getString(DataQuery.COLUMN_MIMETYPE);
 				final Uri uri = ContentUris
 						.withAppendedId(Data.CONTENT_URI, id);
-				boolean deleteEntry = false;
 
-				if (mimeType.equals(StructuredName.CONTENT_ITEM_TYPE)) {
+				if (dataDiff.addRow(mimeType, c)) {
+					// List types are compared after all rows are read
+					continue;
+				} else if (mimeType.equals(StructuredName.CONTENT_ITEM_TYPE)) {
 					contactOp.updateName(uri,
 							c.getString(DataQuery.COLUMN_GIVEN_NAME),
 							c.getString(DataQuery.COLUMN_FAMILY_NAME),
@@ -1865,156 +2201,6 @@ public final class ContactManager {
 							rawContact.getPhoneticGivenName(),
 							rawContact.getPhoneticMiddleName(),
 							rawContact.getPhoneticFamilyName());
-				} else if (mimeType.equals(Phone.CONTENT_ITEM_TYPE)) {
-					final int type = c.getInt(DataQuery.COLUMN_PHONE_TYPE);
-					PhoneType phoneType = getPhoneType(type);
-					deleteEntry = true;
-					if (phones != null) {
-						// Update Entry with the same type
-						for (ListRawData<PhoneType> phoneRawData : phones) {
-							if (phoneRawData.getType() == phoneType) {
-								contactOp.updatePhone(phoneRawData.getData(),
-										phoneRawData.getLabel(),
-										phoneRawData.isPrimary(),
-										phoneRawData.isSuperPrimary(), uri);
-								phones.remove(phoneRawData);
-								deleteEntry = false;
-								break;
-							}
-						}
-					}
-				} else if (mimeType.equals(Email.CONTENT_ITEM_TYPE)) {
-					final int type = c.getInt(DataQuery.COLUMN_EMAIL_TYPE);
-					EmailType emailType = getEmailType(type);
-					deleteEntry = true;
-					if (emails != null) {
-						// Update Entry with the same type
-						for (ListRawData<EmailType> rawData : emails) {
-							if (rawData.getType() == emailType) {
-								contactOp.updateEmail(rawData.getData(),
-										rawData.getLabel(),
-										rawData.isPrimary(),
-										rawData.isSuperPrimary(), uri);
-								emails.remove(rawData);
-								deleteEntry = false;
-								break;
-							}
-						}
-					}
-				} else if (mimeType.equals(Website.CONTENT_ITEM_TYPE)) {
-					final int type = c.getInt(DataQuery.COLUMN_WEBSITE_TYPE);
-					WebsiteType websiteType = getWebsiteType(type);
-					deleteEntry = true;
-					if (websites != null) {
-						// Update Entry with the same type
-						for (ListRawData<WebsiteType> rawData : websites) {
-							if (rawData.getType() == websiteType) {
-								contactOp.updateWebsite(rawData.getData(),
-										rawData.getLabel(),
-										rawData.isPrimary(),
-										rawData.isSuperPrimary(), uri);
-								websites.remove(rawData);
-								deleteEntry = false;
-								break;
-							}
-						}
-					}
-				} else if (mimeType.equals(Event.CONTENT_ITEM_TYPE)) {
-					final int type = c.getInt(DataQuery.COLUMN_EVENT_TYPE);
-					EventType eventType = getEventType(type);
-					deleteEntry = true;
-					if (events != null) {
-						// Update Entry with the same type
-						for (ListRawData<EventType> rawData : events) {
-							if (rawData.getType() == eventType) {
-								contactOp.updateEvent(rawData.getData(),
-										rawData.getLabel(),
-										rawData.isPrimary(),
-										rawData.isSuperPrimary(), uri);
-								events.remove(rawData);
-								deleteEntry = false;
-								break;
-							}
-						}
-					}
-				} else if (mimeType.equals(Relation.CONTENT_ITEM_TYPE)) {
-					final int type = c.getInt(DataQuery.COLUMN_RELATION_TYPE);
-					RelationType relationType = getRelationType(type);
-					deleteEntry = true;
-					if (relations != null) {
-						// Update Entry with the same type
-						for (ListRawData<RelationType> rawData : relations) {
-							if (rawData.getType() == relationType) {
-								contactOp.updateRelation(rawData.getData(),
-										rawData.getLabel(),
-										rawData.isPrimary(),
-										rawData.isSuperPrimary(), uri);
-								relations.remove(rawData);
-								deleteEntry = false;
-								break;
-							}
-						}
-					}
-				} else if (mimeType.equals(Im.CONTENT_ITEM_TYPE)) {
-					final int type = c.getInt(DataQuery.COLUMN_IM_TYPE);
-					ImType imType = getImType(type);
-					deleteEntry = true;
-					if (imAddresses != null) {
-						for (RawImData rawData : imAddresses) {
-							// Update Entry with the same type
-							if (rawData.getType() == imType) {
-								contactOp.updateIm(rawData.getData(), rawData
-										.getLabel(), rawData.isPrimary(),
-										rawData.isSuperPrimary(),
-										getAndroidImProtocolType(rawData
-												.getProtType()), rawData
-												.getCustomProtocolName(), uri);
-								imAddresses.remove(rawData);
-								deleteEntry = false;
-								break;
-							}
-						}
-					}
-				} else if (mimeType.equals(Nickname.CONTENT_ITEM_TYPE)) {
-					final int type = c.getInt(DataQuery.COLUMN_NICKNAME_TYPE);
-					NicknameType nicknameType = getNicknameType(type);
-					deleteEntry = true;
-					if (nicknames != null) {
-						for (ListRawData<NicknameType> rawData : nicknames) {
-							if (rawData.getType() == nicknameType) {
-								contactOp.updateNickname(rawData.getData(),
-										rawData.getLabel(),
-										rawData.isPrimary(),
-										rawData.isSuperPrimary(), uri);
-								nicknames.remove(rawData);
-								deleteEntry = false;
-								break;
-							}
-						}
-					}
-				} else if (mimeType.equals(StructuredPostal.CONTENT_ITEM_TYPE)) {
-					final int type = c.getInt(DataQuery.COLUMN_POSTAL_TYPE);
-					AddressType adrType = getAddressType(type);
-					deleteEntry = true;
-					if (addresses != null) {
-						for (RawAddressData rawData : addresses) {
-							if (rawData.getType() == adrType) {
-								contactOp.updateAddress(rawData.getCity(),
-										rawData.getCountry(),
-										rawData.getNeighborhood(),
-										rawData.getPobox(),
-										rawData.getPostcode(),
-										rawData.getRegion(),
-										rawData.getStreet(),
-										rawData.getLabel(),
-										rawData.isPrimary(),
-										rawData.isSuperPrimary(), uri);
-								addresses.remove(rawData);
-								deleteEntry = false;
-								break;
-							}
-						}
-					}
 				} else if (mimeType.equals(Photo.CONTENT_ITEM_TYPE)) {
 					existingPhoto = true;
 					// Photo support is disabled an existing photo will not be
@@ -2031,108 +2217,37 @@ public final class ContactManager {
 					}
 				} else if (mimeType.equals(GroupMembership.CONTENT_ITEM_TYPE)) {
 					Long groupRowId = c.getLong(DataQuery.COLUMN_GROUP_ROWID);
-					deleteEntry = true;
-					if (groupIds != null && groupIds.contains(groupRowId)) {
-						groupIds.remove(groupRowId);
-						// No update needed
-						deleteEntry = false;
+					// No update needed if the membership still exists
+					if (groupIds == null || !groupIds.remove(groupRowId)) {
+						contactOp.deleteData(uri);
 					}
 				} else if (mimeType.equals(Note.CONTENT_ITEM_TYPE)) {
 					existingNote = true;
-					contactOp.updateNote(rawContact.getNote(), uri);
+					if (!TextUtils.equals(c.getString(DataQuery.COLUMN_NOTE),
+							rawContact.getNote())) {
+						contactOp.updateNote(rawContact.getNote(), uri);
+					}
 				} else if (mimeType.equals(Organization.CONTENT_ITEM_TYPE)) {
-					existingOrg = true;
-					RawOrganizationData org = rawContact.getOrganization();
-					contactOp.updateOrganization(org.getData(),
-							getAndroidOrganizationType(org.getType()),
-							org.getLabel(), org.getTitle(),
-							org.getDepartment(), org.getJobDescription(),
-							org.isPrimary(), org.isSuperPrimary(), uri);
-				}
-
-				if (deleteEntry) {
-					contactOp.deleteData(uri);
-				}
-
-			} // while
-		} finally {
-			c.close();
-		}
-
-		// Add new entries if not updated above.
-		if (phones != null) {
-			for (ListRawData<PhoneType> phoneRawData : phones) {
-				contactOp.addPhone(phoneRawData.getData(),
-						getAndroidPhoneType(phoneRawData.getType()),
-						phoneRawData.getLabel(), phoneRawData.isPrimary(),
-						phoneRawData.isSuperPrimary());
-			}
-		}
-
-		if (emails != null) {
-			for (ListRawData<EmailType> rawData : emails) {
-				contactOp.addEmail(rawData.getData(),
-						getAndroidEmailType(rawData.getType()),
-						rawData.getLabel(), rawData.isPrimary(),
-						rawData.isSuperPrimary());
-			}
-		}
-
-		if (events != null) {
-			for (ListRawData<EventType> rawData : events) {
-				contactOp.addEvent(rawData.getData(),
-						getAndroidEventType(rawData.getType()),
-						rawData.getLabel(), rawData.isPrimary(),
-						rawData.isSuperPrimary());
-			}
-		}
-
-		if (websites != null) {
-			for (ListRawData<WebsiteType> rawData : websites) {
-				contactOp.addWebsite(rawData.getData(),
-						getAndroidWebsiteType(rawData.getType()),
-						rawData.getLabel(), rawData.isPrimary(),
-						rawData.isSuperPrimary());
-			}
+					existingOrg = true;
+					if (org == null) {
+						contactOp.deleteData(uri);
+					} else if (!isSameOrganization(c, org)) {
+						contactOp.updateOrganization(org.getData(),
+								getAndroidOrganizationType(org.getType()),
+								org.getLabel(), org.getTitle(),
+								org.getDepartment(), org.getJobDescription(),
+								org.isPrimary(), org.isSuperPrimary(), uri);
+					}
+				}
+			} // while
+		} finally {
+			c.close();
 		}
 
-		if (nicknames != null) {
-			for (ListRawData<NicknameType> rawData : nicknames) {
-				contactOp.addNickname(rawData.getData(),
-						getAndroidNicknameType(rawData.getType()),
-						rawData.getLabel(), rawData.isPrimary(),
-						rawData.isSuperPrimary());
-			}
-		}
-		if (relations != null) {
-			for (ListRawData<RelationType> rawData : relations) {
-				contactOp.addRelation(rawData.getData(),
-						getAndroidRelationType(rawData.getType()),
-						rawData.getLabel(), rawData.isPrimary(),
-						rawData.isSuperPrimary());
-			}
-		}
-		if (imAddresses != null) {
-			for (RawImData rawData : imAddresses) {
-				contactOp.addIm(rawData.getData(),
-						getAndroidImType(rawData.getType()),
-						rawData.getLabel(), rawData.isPrimary(),
-						rawData.isSuperPrimary(),
-						getAndroidImProtocolType(rawData.getProtType()),
-						rawData.getCustomProtocolName());
-			}
-		}
-		if (addresses != null) {
-			for (RawAddressData rawData : addresses) {
-				contactOp.addAddress(rawData.getCity(), rawData.getCountry(),
-						rawData.getLabel(),
-						getAndroidAddressType(rawData.getType()),
-						rawData.getNeighborhood(), rawData.getPobox(),
-						rawData.getPostcode(), rawData.getRegion(),
-						rawData.getStreet(), rawData.isPrimary(),
-						rawData.isSuperPrimary());
-			}
-		}
+		// Update, add and delete the rows of the list types
+		dataDiff.apply(rawContact);
+		LogHelper.logD(TAG, "Unchanged data rows: {}",
+				Integer.valueOf(dataDiff.getUnchangedCount()));
 
 		// Add the photo if we didn't update the existing photo
 		if (!existingPhoto && (restr == null || restr.isPhotoSyncSupported())) {
@@ -2142,15 +2257,11 @@ public final class ContactManager {
 		if (!existingNote) {
 			contactOp.addNote(rawContact.getNote());
 		}
-		if (!existingOrg) {
-			RawOrganizationData org = rawContact.getOrganization();
-			if (org != null) {
-				contactOp.addOrganization(org.getData(),
-						getAndroidOrganizationType(org.getType()),
-						org.getLabel(), org.isPrimary(), org.isSuperPrimary(),
-						org.getTitle(), org.getDepartment(),
-						org.getJobDescription());
-			}
+		if (!existingOrg && org != null) {
+			contactOp.addOrganization(org.getData(),
+					getAndroidOrganizationType(org.getType()), org.getLabel(),
+					org.isPrimary(), org.isSuperPrimary(), org.getTitle(),
+					org.getDepartment(), org.getJobDescription());
 		}
 		if (groupIds != null) {
 			for (Long groupId : groupIds) {
@@ -2180,7 +2291,7 @@ public final class ContactManager {
 						rawContact.getDroidCustomRingtone(),
 						existCustomRingtone, rawContact.isSendToVoiceMail(),
 						existSendToVoiceMail, rawContactId, contactId,
-						rawContact.getLastModified(), currVersion);
+						rawContact.getLastModified(), currVersion, fingerprint);
 			}
 		} finally {
 			rC.close();
@@ -2188,6 +2299,33 @@ public final class ContactManager {
 
 	}
 
+	/**
+	 * @return true if the organization row of the cursor has the same values.
+	 */
+	private static boolean isSameOrganization(Cursor c, RawOrganizationData org) {
+		int type = getAndroidOrganizationType(org.getType());
+		return c.getInt(DataQuery.COLUMN_ORGANIZATION_TYPE) == type
+				&& TextUtils.equals(
+						c.getString(DataQuery.COLUMN_ORGANIZATION_NAME),
+						org.getData())
+				&& TextUtils.equals(
+						c.getString(DataQuery.COLUMN_ORGANIZATION_LABEL),
+						org.getLabel())
+				&& TextUtils.equals(
+						c.getString(DataQuery.COLUMN_ORGANIZATION_TITLE),
+						org.getTitle())
+				&& TextUtils.equals(
+						c.getString(DataQuery.COLUMN_ORGANIZATION_DEPARTMENT),
+						org.getDepartment())
+				&& TextUtils.equals(
+						c.getString(DataQuery.COLUMN_ORGANIZATION_JOBTITLE),
+						org.getJobDescription())
+				&& (c.getInt(DataQuery.COLUMN_IS_PRIMARY) != 0) == org
+						.isPrimary()
+				&& (c.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY) != 0) == org
+						.isSuperPrimary();
+	}
+
 	private static void updateGroup(ContentResolver resolver,
 			ContactGroup group, boolean inSync, Long gId,
 			BatchOperation batchOperation) {
@@ -2401,41 +2539,6 @@ public final class ContactManager {
 		return groupId;
 	}
 
-	private static boolean isRawContactAvailable(ContentResolver resolver,
-			long rawContactId) {
-		final Cursor c = resolver.query(RawContactQuery.CONTENT_URI,
-				RawContactQuery.PROJECTION_ID, RawContactQuery.SELECTION,
-				new String[] { String.valueOf(rawContactId) }, null);
-
-		boolean available;
-		try {
-			available = c.moveToNext();
-		} finally {
-			c.close();
-		}
-
-		return available;
-	}
-
-	private static Long isGroupAvailable(ContentResolver resolver,
-			String sourceId, String accountName) {
-		final Cursor c = resolver.query(GroupQuery.CONTENT_URI,
-				GroupQuery.PROJECTION, GroupQuery.SELECTION, new String[] {
-						String.valueOf(sourceId), accountName }, null);
-
-		Long groupId = null;
-
-		try {
-			if (c.moveToNext()) {
-				groupId = c.getLong(GroupQuery.COLUMN_ID);
-			}
-		} finally {
-			c.close();
-		}
-
-		return groupId;
-	}
-
 	/**
 	 * Return a User object with data extracted from a contact stored in the
 	 * local contacts database.
@@ -2448,8 +2551,9 @@ public final class ContactManager {
 	 *            the Authenticator Activity context
 	 * @param rawContactId
 	 *            the unique ID for the local contact
-	 * @param cached
-	 *            Mapping from Group Id to Group Source Id. null is not allowed.
+	 * @param cachedGroupIds
+	 *            Mapping from Group Id to the imported Group Id. null is not
+	 *            allowed.
 	 * @param accountName
 	 *            AccountName of the RawContact. For Import this is only set
 	 *            when the Type is one of ours Contact-Type
@@ -2466,302 +2570,443 @@ public final class ContactManager {
 			String importAccountNameDest, Restrictions restr,
 			RestrictionConflictHandler conflictHandler) throws IOException,
 			OperationApplicationException {
-		String firstName = null;
-		String lastName = null;
-		String fullName = null;
-		String middleName = null;
-		String prefixName = null;
-		String suffixName = null;
-		String phoneFirstName = null;
-		String phoneMiddleName = null;
-		String phoneLastName = null;
-		String serverId = null;
-
-		Date lastModified = null;
-		byte[] photo = null;
-		boolean photoIsSuperPrimary = false;
+		RawContactData data = new RawContactData(rawContactId);
 
 		final ContentResolver resolver = context.getContentResolver();
+		// The groups of an import are mapped with cachedGroupIds
+		final GroupIndex groupIndex = importAccountNameDest == null ? new GroupIndex(
+				resolver, accountName) : null;
 		final Cursor c = resolver.query(DataQuery.CONTENT_URI,
 				DataQuery.PROJECTION, DataQuery.SELECTION,
 				new String[] { String.valueOf(rawContactId) }, null);
-		List<ListRawData<PhoneType>> phones = null;
-		List<ListRawData<EmailType>> emails = null;
-		List<ListRawData<WebsiteType>> websites = null;
-		List<ListRawData<EventType>> events = null;
-		List<ListRawData<RelationType>> relations = null;
-		List<ListRawData<NicknameType>> nicknames = null;
-		List<RawAddressData> addresses = null;
-		List<RawImData> imAddresses = null;
-		String note = null;
-		List<String> groupSourceIds = null;
-		List<Long> groupIds = null;
-		RawOrganizationData org = null;
-		boolean starred = false;
-		String customRingtone = null;
-		boolean sendToVoiceMail = false;
-
 		try {
 			while (c.moveToNext()) {
-				final String mimeType = c.getString(DataQuery.COLUMN_MIMETYPE);
-				if (mimeType.equals(StructuredName.CONTENT_ITEM_TYPE)) {
-					lastName = c.getString(DataQuery.COLUMN_FAMILY_NAME);
-					firstName = c.getString(DataQuery.COLUMN_GIVEN_NAME);
-					fullName = c.getString(DataQuery.COLUMN_FULL_NAME);
-					middleName = c.getString(DataQuery.COLUMN_MIDDLE_NAME);
-					suffixName = c.getString(DataQuery.COLUMN_SUFFIX_NAME);
-					prefixName = c.getString(DataQuery.COLUMN_PREFIX_NAME);
-					phoneFirstName = c
-							.getString(DataQuery.COLUMN_PHONECTIC_GIVEN);
-					phoneMiddleName = c
-							.getString(DataQuery.COLUMN_PHONECTIC_MIDDLE);
-					phoneLastName = c
-							.getString(DataQuery.COLUMN_PHONECTIC_LAST);
-				} else if (mimeType.equals(Photo.CONTENT_ITEM_TYPE)) {
-					if (restr == null || restr.isPhotoSyncSupported()) {
-						int isSuperPrimary = c
-								.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-						photo = readPhoto(context, rawContactId,
-								importAccountNameDest != null ? null
-										: accountName, c);
-						photoIsSuperPrimary = isSuperPrimary != 0;
-					} else {
-						// Notif user one time, that pictures are not
-						// synchronized
-						if (!c.isNull(DataQuery.COLUMN_PHOTO_IMAGE)
-								&& conflictHandler != null) {
-							conflictHandler.onPhotoNotSynced(rawContactId,
-									c.getLong(DataQuery.COLUMN_ID));
-						}
-					}
-				} else if (mimeType.equals(Phone.CONTENT_ITEM_TYPE)) {
-					if (phones == null) {
-						phones = new ArrayList<ListRawData<PhoneType>>();
-					}
-					int isSuperPrimary = c
-							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-					int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
-					PhoneType phoneType = getPhoneType(c
-							.getInt(DataQuery.COLUMN_PHONE_TYPE));
-					phones.add(new ListRawData<PhoneType>(c
-							.getString(DataQuery.COLUMN_PHONE_NUMBER),
-							phoneType, c
-									.getString(DataQuery.COLUMN_PHONE_LABEL),
-							isPrimary != 0, isSuperPrimary != 0));
-
-				} else if (mimeType.equals(Email.CONTENT_ITEM_TYPE)) {
-					if (emails == null) {
-						emails = new ArrayList<ListRawData<EmailType>>();
-					}
-					int isSuperPrimary = c
-							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-					int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
-					EmailType type = getEmailType(c
-							.getInt(DataQuery.COLUMN_EMAIL_TYPE));
-					emails.add(new ListRawData<EmailType>(c
-							.getString(DataQuery.COLUMN_EMAIL_ADDRESS), type, c
-							.getString(DataQuery.COLUMN_EMAIL_LABEL),
-							isPrimary != 0, isSuperPrimary != 0));
-
-				} else if (mimeType.equals(Website.CONTENT_ITEM_TYPE)) {
-					if (websites == null) {
-						websites = new ArrayList<ListRawData<WebsiteType>>();
-					}
-					int isSuperPrimary = c
-							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-					int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
-					WebsiteType type = getWebsiteType(c
-							.getInt(DataQuery.COLUMN_WEBSITE_TYPE));
-					websites.add(new ListRawData<WebsiteType>(c
-							.getString(DataQuery.COLUMN_WEBSITE_ADDRESS), type,
-							c.getString(DataQuery.COLUMN_WEBSITE_LABEL),
-							isPrimary != 0, isSuperPrimary != 0));
-				} else if (mimeType.equals(Event.CONTENT_ITEM_TYPE)) {
-					if (events == null) {
-						events = new ArrayList<ListRawData<EventType>>();
-					}
-					int isSuperPrimary = c
-							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-					int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
-					EventType type = getEventType(c
-							.getInt(DataQuery.COLUMN_EVENT_TYPE));
-					events.add(new ListRawData<EventType>(c
-							.getString(DataQuery.COLUMN_EVENT_DATA), type, c
-							.getString(DataQuery.COLUMN_EVENT_LABEL),
-							isPrimary != 0, isSuperPrimary != 0));
-				} else if (mimeType.equals(Relation.CONTENT_ITEM_TYPE)) {
-					if (relations == null) {
-						relations = new ArrayList<ListRawData<RelationType>>();
-					}
-					int isSuperPrimary = c
-							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-					int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
-					RelationType type = getRelationType(c
-							.getInt(DataQuery.COLUMN_RELATION_TYPE));
-					relations.add(new ListRawData<RelationType>(c
-							.getString(DataQuery.COLUMN_RELATION_DATA), type, c
-							.getString(DataQuery.COLUMN_RELATION_LABEL),
-							isPrimary != 0, isSuperPrimary != 0));
-				} else if (mimeType.equals(Nickname.CONTENT_ITEM_TYPE)) {
-					if (nicknames == null) {
-						nicknames = new ArrayList<ListRawData<NicknameType>>();
-					}
-					int isSuperPrimary = c
-							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-					int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
-					NicknameType type = getNicknameType(c
-							.getInt(DataQuery.COLUMN_NICKNAME_TYPE));
-					nicknames.add(new ListRawData<NicknameType>(c
-							.getString(DataQuery.COLUMN_NICKNAME_DATA), type, c
-							.getString(DataQuery.COLUMN_NICKNAME_LABEL),
-							isPrimary != 0, isSuperPrimary != 0));
-				} else if (mimeType.equals(StructuredPostal.CONTENT_ITEM_TYPE)) {
-					if (addresses == null) {
-						addresses = new ArrayList<RawAddressData>();
-					}
-					int isSuperPrimary = c
-							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-					int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
-					AddressType type = getAddressType(c
-							.getInt(DataQuery.COLUMN_POSTAL_TYPE));
-					addresses
-							.add(new RawAddressData(
-									type,
-									c.getString(DataQuery.COLUMN_POSTAL_LABEL),
-									isPrimary != 0,
-									isSuperPrimary != 0,
-									c.getString(DataQuery.COLUMN_POSTAL_STREET),
-									c.getString(DataQuery.COLUMN_POSTAL_POBOX),
-									c.getString(DataQuery.COLUMN_POSTAL_NEIGHBORHOOD),
-									c.getString(DataQuery.COLUMN_POSTAL_CITY),
-									c.getString(DataQuery.COLUMN_POSTAL_REGION),
-									c.getString(DataQuery.COLUMN_POSTAL_POSTCODE),
-									c.getString(DataQuery.COLUMN_POSTAL_COUNTRY)));
-				} else if (mimeType.equals(Im.CONTENT_ITEM_TYPE)) {
-					if (imAddresses == null) {
-						imAddresses = new ArrayList<RawImData>();
-					}
-					int isSuperPrimary = c
-							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-					int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
-					ImType type = getImType(c.getInt(DataQuery.COLUMN_IM_TYPE));
-					ImProtocolType proType = getImProtocolType(c
-							.getInt(DataQuery.COLUMN_IM_PROTOCOL_TYPE));
-					imAddresses.add(new RawImData(c
-							.getString(DataQuery.COLUMN_IM_ADDRESS), type, c
-							.getString(DataQuery.COLUMN_IM_LABEL),
-							isPrimary != 0, isSuperPrimary != 0, proType,
-							c.getString(DataQuery.COLUMN_IM_PROTOCOL_NAME)));
-				} else if (mimeType.equals(Note.CONTENT_ITEM_TYPE)) {
-					note = c.getString(DataQuery.COLUMN_NOTE);
-				} else if (mimeType.equals(Organization.CONTENT_ITEM_TYPE)) {
-					int isSuperPrimary = c
-							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
-					int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
-					OrganizationType type = getOrganizationType(c
-							.getInt(DataQuery.COLUMN_ORGANIZATION_TYPE));
-					org = new RawOrganizationData(
-							c.getString(DataQuery.COLUMN_ORGANIZATION_NAME),
-							type,
-							c.getString(DataQuery.COLUMN_ORGANIZATION_LABEL),
-							isPrimary != 0,
-							isSuperPrimary != 0,
-							c.getString(DataQuery.COLUMN_ORGANIZATION_TITLE),
-							c.getString(DataQuery.COLUMN_ORGANIZATION_DEPARTMENT),
-							c.getString(DataQuery.COLUMN_ORGANIZATION_JOBTITLE));
-				} else if (mimeType.equals(GroupMembership.CONTENT_ITEM_TYPE)
-						&& !c.isNull(DataQuery.COLUMN_GROUP_ROWID)) {
-
-					Long groupId = c.getLong(DataQuery.COLUMN_GROUP_ROWID);
-					// SourceId
-					if (importAccountNameDest != null) {
-						// Search existing Group otherwise create Group
-						// with the same name
-						Long newGroupId = null;
-						String groupLongId = cachedGroupIds.get(groupId);
-						if (groupLongId != null) {
-							newGroupId = Long.parseLong(groupLongId);
-						} else {
-							newGroupId = getGroupByName(resolver, groupId,
-									importAccountNameDest);
-							cachedGroupIds.put(groupId,
-									String.valueOf(newGroupId));
-						}
-						if (newGroupId != null) {
-							if (groupIds == null) {
-								groupIds = new ArrayList<Long>();
-							}
-							groupIds.add(newGroupId);
-						}
-
-					} else {
-						String groupSourceId = cachedGroupIds.get(groupId);
-						if (groupSourceId == null) {
-							groupSourceId = getGroupSourceId(resolver, groupId);
-							if (groupSourceId != null) {
-								cachedGroupIds.put(groupId, groupSourceId);
-							}
-						}
-						if (groupSourceId != null) {
-							if (groupSourceIds == null) {
-								groupSourceIds = new ArrayList<String>();
-							}
-							groupSourceIds.add(groupSourceId);
-						}
-					}
-				}
+				data.readDataRow(context, c, cachedGroupIds, groupIndex,
+						null, accountName, importAccountNameDest, restr,
+						conflictHandler);
 			} // while
 		} finally {
 			c.close();
 		}
-		long version = -1;
 
 		final Cursor rC = resolver.query(RawContactQuery.CONTENT_URI,
 				RawContactQuery.PROJECTION_FULL, RawContactQuery.SELECTION,
 				new String[] { String.valueOf(rawContactId) }, null);
 		try {
 			while (rC.moveToNext()) {
-				int starredInt = rC.getInt(RawContactQuery.COLUMN_STARRED);
-				starred = starredInt != 0;
+				data.readRawContactRow(rC, importAccountNameDest == null
+						|| accountName != null);
+			}
+		} finally {
+			rC.close();
+		}
 
-				int sendToVoiceInt = rC
-						.getInt(RawContactQuery.COLUMN_SEND_TO_VOICEMAIL);
-				sendToVoiceMail = sendToVoiceInt != 0;
-				customRingtone = rC
-						.getString(RawContactQuery.COLUMN_CUSTOM_RINGTONE);
-				if (importAccountNameDest == null || accountName != null) {
-					lastModified = rC.isNull(RawContactQuery.COLUMN_LASTMOD) ? null
-							: new Date(
-									rC.getLong(RawContactQuery.COLUMN_LASTMOD));
+		return data.createRawContact(importAccountNameDest != null);
+	}
+
+	/**
+	 * Reads the contacts with the given ids for the synchronization with one
+	 * data query ordered by raw contact id and one raw contact query.
+	 * 
+	 * @param rawContactIds
+	 *            max. {@link #MAX_SELECTION_ARGS} ids
+	 * @return RawContact by RawContactId
+	 */
+	private static Map<Long, RawContact> getRawContacts(Context context,
+			List<Long> rawContactIds, GroupIndex groupIndex,
+			String accountName, Restrictions restr,
+			RestrictionConflictHandler conflictHandler) throws IOException,
+			OperationApplicationException {
+		Map<Long, RawContactData> contactData = new HashMap<Long, RawContactData>();
+		String[] selArgs = new String[rawContactIds.size()];
+		for (int i = 0; i < selArgs.length; i++) {
+			Long rawContactId = rawContactIds.get(i);
+			selArgs[i] = String.valueOf(rawContactId);
+			contactData.put(rawContactId, new RawContactData(rawContactId));
+		}
+
+		final ContentResolver resolver = context.getContentResolver();
+		final Set<Long> photoIds = getAvailablePhotoIds(resolver, selArgs);
+		final Cursor c = resolver.query(DataQuery.CONTENT_URI,
+				DataQuery.PROJECTION,
+				createInSelection(Data.RAW_CONTACT_ID, selArgs.length),
+				selArgs, Data.RAW_CONTACT_ID);
+		try {
+			RawContactData data = null;
+			while (c.moveToNext()) {
+				long rawContactId = c.getLong(DataQuery.COLUMN_RAW_CONTACT_ID);
+				if (data == null || data.rawContactId != rawContactId) {
+					data = contactData.get(rawContactId);
 				}
-				version = rC.getLong(RawContactQuery.COLUMN_VERSION);
+				data.readDataRow(context, c, null, groupIndex, photoIds,
+						accountName, null, restr, conflictHandler);
+			}
+		} finally {
+			c.close();
+		}
+
+		final Cursor rC = resolver.query(RawContactQuery.CONTENT_URI,
+				RawContactQuery.PROJECTION_FULL,
+				createInSelection(RawContacts._ID, selArgs.length), selArgs,
+				null);
+		try {
+			while (rC.moveToNext()) {
+				contactData.get(rC.getLong(RawContactQuery.COLUMN_ID))
+						.readRawContactRow(rC, true);
 			}
 		} finally {
 			rC.close();
 		}
 
-		// Now that we've extracted all the information we care about,
-		// create the actual User object.
-		RawContact rawContact;
-		if (importAccountNameDest != null) {
-			rawContact = RawContact.create(fullName, firstName, lastName,
-					middleName, prefixName, suffixName, phoneFirstName,
-					phoneMiddleName, phoneLastName, phones, emails, websites,
-					addresses, events, relations, null, nicknames, imAddresses,
-					note, org, photo, photoIsSuperPrimary, null, groupIds,
-					starred, customRingtone, sendToVoiceMail, lastModified,
-					false, -1, serverId, version);
-		} else {
-			rawContact = RawContact.create(fullName, firstName, lastName,
-					middleName, prefixName, suffixName, phoneFirstName,
-					phoneMiddleName, phoneLastName, phones, emails, websites,
-					addresses, events, relations, null, nicknames, imAddresses,
-					note, org, photo, photoIsSuperPrimary, groupSourceIds,
-					null, starred, customRingtone, sendToVoiceMail,
-					lastModified, false, rawContactId, serverId, version);
+		Map<Long, RawContact> rawContacts = new HashMap<Long, RawContact>();
+		for (RawContactData data : contactData.values()) {
+			rawContacts.put(data.rawContactId, data.createRawContact(false));
+		}
+		return rawContacts;
+	}
+
+	/**
+	 * Finds the photo data rows of the given raw contacts which contain a
+	 * photo, without loading the photos.
+	 * 
+	 * @param rawContactIds
+	 *            max. {@link #MAX_SELECTION_ARGS} ids
+	 * @return Ids of the photo data rows with a photo
+	 */
+	private static Set<Long> getAvailablePhotoIds(ContentResolver resolver,
+			String[] rawContactIds) {
+		String[] selArgs = new String[rawContactIds.length + 1];
+		selArgs[0] = Photo.CONTENT_ITEM_TYPE;
+		System.arraycopy(rawContactIds, 0, selArgs, 1, rawContactIds.length);
+		Set<Long> photoIds = new HashSet<Long>();
+		final Cursor c = resolver.query(PhotoBlobQuery.CONTENT_URI,
+				PhotoBlobQuery.PROJECTION_ID,
+				PhotoBlobQuery.SELECTION_AVAILABLE_TYPE
+						+ createInSelection(Data.RAW_CONTACT_ID,
+								rawContactIds.length), selArgs, null);
+		try {
+			while (c.moveToNext()) {
+				photoIds.add(c.getLong(PhotoBlobQuery.COLUMN_ID));
+			}
+		} finally {
+			c.close();
+		}
+		return photoIds;
+	}
+
+	/**
+	 * Collects the values of one raw contact from its data rows.
+	 */
+	private static final class RawContactData {
+		private final long rawContactId;
+
+		private String firstName = null;
+		private String lastName = null;
+		private String fullName = null;
+		private String middleName = null;
+		private String prefixName = null;
+		private String suffixName = null;
+		private String phoneFirstName = null;
+		private String phoneMiddleName = null;
+		private String phoneLastName = null;
+
+		private Date lastModified = null;
+		private byte[] photo = null;
+		private boolean photoIsSuperPrimary = false;
+
+		private List<ListRawData<PhoneType>> phones = null;
+		private List<ListRawData<EmailType>> emails = null;
+		private List<ListRawData<WebsiteType>> websites = null;
+		private List<ListRawData<EventType>> events = null;
+		private List<ListRawData<RelationType>> relations = null;
+		private List<ListRawData<NicknameType>> nicknames = null;
+		private List<RawAddressData> addresses = null;
+		private List<RawImData> imAddresses = null;
+		private String note = null;
+		private List<String> groupSourceIds = null;
+		private List<Long> groupIds = null;
+		private RawOrganizationData org = null;
+		private boolean starred = false;
+		private String customRingtone = null;
+		private boolean sendToVoiceMail = false;
+		private long version = -1;
+
+		RawContactData(long rawContactId) {
+			this.rawContactId = rawContactId;
+		}
+
+		/**
+		 * Reads the current row of a {@link DataQuery}-Cursor.
+		 * 
+		 * @param cachedGroupIds
+		 *            Mapping from Group Id to the imported Group Id, only
+		 *            used for an import.
+		 * @param groupIndex
+		 *            Mapping from Group Id to Group Source Id, not used for an
+		 *            import.
+		 * @param photoIds
+		 *            Ids of the photo data rows with a photo or null to query
+		 *            it for each photo row.
+		 */
+		void readDataRow(Context context, Cursor c,
+				Map<Long, String> cachedGroupIds, GroupIndex groupIndex,
+				Set<Long> photoIds, String accountName, String importAccountNameDest,
+				Restrictions restr,
+				RestrictionConflictHandler conflictHandler) throws IOException,
+				OperationApplicationException {
+			final String mimeType = c.getString(DataQuery.COLUMN_MIMETYPE);
+			if (mimeType.equals(StructuredName.CONTENT_ITEM_TYPE)) {
+				lastName = c.getString(DataQuery.COLUMN_FAMILY_NAME);
+				firstName = c.getString(DataQuery.COLUMN_GIVEN_NAME);
+				fullName = c.getString(DataQuery.COLUMN_FULL_NAME);
+				middleName = c.getString(DataQuery.COLUMN_MIDDLE_NAME);
+				suffixName = c.getString(DataQuery.COLUMN_SUFFIX_NAME);
+				prefixName = c.getString(DataQuery.COLUMN_PREFIX_NAME);
+				phoneFirstName = c
+						.getString(DataQuery.COLUMN_PHONECTIC_GIVEN);
+				phoneMiddleName = c
+						.getString(DataQuery.COLUMN_PHONECTIC_MIDDLE);
+				phoneLastName = c
+						.getString(DataQuery.COLUMN_PHONECTIC_LAST);
+			} else if (mimeType.equals(Photo.CONTENT_ITEM_TYPE)) {
+				if (restr == null || restr.isPhotoSyncSupported()) {
+					int isSuperPrimary = c
+							.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+					photo = readPhoto(context, rawContactId,
+							importAccountNameDest != null ? null
+									: accountName, c, photoIds);
+					photoIsSuperPrimary = isSuperPrimary != 0;
+				} else {
+					// Notif user one time, that pictures are not
+					// synchronized
+					if (conflictHandler != null) {
+						long dataId = c.getLong(DataQuery.COLUMN_ID);
+						if (isPhotoAvailable(context.getContentResolver(),
+								dataId, photoIds)) {
+							conflictHandler.onPhotoNotSynced(rawContactId,
+									dataId);
+						}
+					}
+				}
+			} else if (mimeType.equals(Phone.CONTENT_ITEM_TYPE)) {
+				if (phones == null) {
+					phones = new ArrayList<ListRawData<PhoneType>>();
+				}
+				int isSuperPrimary = c
+						.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+				int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
+				PhoneType phoneType = getPhoneType(c
+						.getInt(DataQuery.COLUMN_PHONE_TYPE));
+				phones.add(new ListRawData<PhoneType>(c
+						.getString(DataQuery.COLUMN_PHONE_NUMBER),
+						phoneType, c
+								.getString(DataQuery.COLUMN_PHONE_LABEL),
+						isPrimary != 0, isSuperPrimary != 0));
+
+			} else if (mimeType.equals(Email.CONTENT_ITEM_TYPE)) {
+				if (emails == null) {
+					emails = new ArrayList<ListRawData<EmailType>>();
+				}
+				int isSuperPrimary = c
+						.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+				int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
+				EmailType type = getEmailType(c
+						.getInt(DataQuery.COLUMN_EMAIL_TYPE));
+				emails.add(new ListRawData<EmailType>(c
+						.getString(DataQuery.COLUMN_EMAIL_ADDRESS), type, c
+						.getString(DataQuery.COLUMN_EMAIL_LABEL),
+						isPrimary != 0, isSuperPrimary != 0));
+
+			} else if (mimeType.equals(Website.CONTENT_ITEM_TYPE)) {
+				if (websites == null) {
+					websites = new ArrayList<ListRawData<WebsiteType>>();
+				}
+				int isSuperPrimary = c
+						.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+				int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
+				WebsiteType type = getWebsiteType(c
+						.getInt(DataQuery.COLUMN_WEBSITE_TYPE));
+				websites.add(new ListRawData<WebsiteType>(c
+						.getString(DataQuery.COLUMN_WEBSITE_ADDRESS), type,
+						c.getString(DataQuery.COLUMN_WEBSITE_LABEL),
+						isPrimary != 0, isSuperPrimary != 0));
+			} else if (mimeType.equals(Event.CONTENT_ITEM_TYPE)) {
+				if (events == null) {
+					events = new ArrayList<ListRawData<EventType>>();
+				}
+				int isSuperPrimary = c
+						.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+				int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
+				EventType type = getEventType(c
+						.getInt(DataQuery.COLUMN_EVENT_TYPE));
+				events.add(new ListRawData<EventType>(c
+						.getString(DataQuery.COLUMN_EVENT_DATA), type, c
+						.getString(DataQuery.COLUMN_EVENT_LABEL),
+						isPrimary != 0, isSuperPrimary != 0));
+			} else if (mimeType.equals(Relation.CONTENT_ITEM_TYPE)) {
+				if (relations == null) {
+					relations = new ArrayList<ListRawData<RelationType>>();
+				}
+				int isSuperPrimary = c
+						.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+				int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
+				RelationType type = getRelationType(c
+						.getInt(DataQuery.COLUMN_RELATION_TYPE));
+				relations.add(new ListRawData<RelationType>(c
+						.getString(DataQuery.COLUMN_RELATION_DATA), type, c
+						.getString(DataQuery.COLUMN_RELATION_LABEL),
+						isPrimary != 0, isSuperPrimary != 0));
+			} else if (mimeType.equals(Nickname.CONTENT_ITEM_TYPE)) {
+				if (nicknames == null) {
+					nicknames = new ArrayList<ListRawData<NicknameType>>();
+				}
+				int isSuperPrimary = c
+						.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+				int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
+				NicknameType type = getNicknameType(c
+						.getInt(DataQuery.COLUMN_NICKNAME_TYPE));
+				nicknames.add(new ListRawData<NicknameType>(c
+						.getString(DataQuery.COLUMN_NICKNAME_DATA), type, c
+						.getString(DataQuery.COLUMN_NICKNAME_LABEL),
+						isPrimary != 0, isSuperPrimary != 0));
+			} else if (mimeType.equals(StructuredPostal.CONTENT_ITEM_TYPE)) {
+				if (addresses == null) {
+					addresses = new ArrayList<RawAddressData>();
+				}
+				int isSuperPrimary = c
+						.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+				int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
+				AddressType type = getAddressType(c
+						.getInt(DataQuery.COLUMN_POSTAL_TYPE));
+				addresses
+						.add(new RawAddressData(
+								type,
+								c.getString(DataQuery.COLUMN_POSTAL_LABEL),
+								isPrimary != 0,
+								isSuperPrimary != 0,
+								c.getString(DataQuery.COLUMN_POSTAL_STREET),
+								c.getString(DataQuery.COLUMN_POSTAL_POBOX),
+								c.getString(DataQuery.COLUMN_POSTAL_NEIGHBORHOOD),
+								c.getString(DataQuery.COLUMN_POSTAL_CITY),
+								c.getString(DataQuery.COLUMN_POSTAL_REGION),
+								c.getString(DataQuery.COLUMN_POSTAL_POSTCODE),
+								c.getString(DataQuery.COLUMN_POSTAL_COUNTRY)));
+			} else if (mimeType.equals(Im.CONTENT_ITEM_TYPE)) {
+				if (imAddresses == null) {
+					imAddresses = new ArrayList<RawImData>();
+				}
+				int isSuperPrimary = c
+						.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+				int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
+				ImType type = getImType(c.getInt(DataQuery.COLUMN_IM_TYPE));
+				ImProtocolType proType = getImProtocolType(c
+						.getInt(DataQuery.COLUMN_IM_PROTOCOL_TYPE));
+				imAddresses.add(new RawImData(c
+						.getString(DataQuery.COLUMN_IM_ADDRESS), type, c
+						.getString(DataQuery.COLUMN_IM_LABEL),
+						isPrimary != 0, isSuperPrimary != 0, proType,
+						c.getString(DataQuery.COLUMN_IM_PROTOCOL_NAME)));
+			} else if (mimeType.equals(Note.CONTENT_ITEM_TYPE)) {
+				note = c.getString(DataQuery.COLUMN_NOTE);
+			} else if (mimeType.equals(Organization.CONTENT_ITEM_TYPE)) {
+				int isSuperPrimary = c
+						.getInt(DataQuery.COLUMN_IS_SUPER_PRIMARY);
+				int isPrimary = c.getInt(DataQuery.COLUMN_IS_PRIMARY);
+				OrganizationType type = getOrganizationType(c
+						.getInt(DataQuery.COLUMN_ORGANIZATION_TYPE));
+				org = new RawOrganizationData(
+						c.getString(DataQuery.COLUMN_ORGANIZATION_NAME),
+						type,
+						c.getString(DataQuery.COLUMN_ORGANIZATION_LABEL),
+						isPrimary != 0,
+						isSuperPrimary != 0,
+						c.getString(DataQuery.COLUMN_ORGANIZATION_TITLE),
+						c.getString(DataQuery.COLUMN_ORGANIZATION_DEPARTMENT),
+						c.getString(DataQuery.COLUMN_ORGANIZATION_JOBTITLE));
+			} else if (mimeType.equals(GroupMembership.CONTENT_ITEM_TYPE)
+					&& !c.isNull(DataQuery.COLUMN_GROUP_ROWID)) {
+
+				Long groupId = c.getLong(DataQuery.COLUMN_GROUP_ROWID);
+				// SourceId
+				if (importAccountNameDest != null) {
+					// Search existing Group otherwise create Group
+					// with the same name
+					Long newGroupId = null;
+					String groupLongId = cachedGroupIds.get(groupId);
+					if (groupLongId != null) {
+						newGroupId = Long.parseLong(groupLongId);
+					} else {
+						newGroupId = getGroupByName(
+								context.getContentResolver(), groupId,
+								importAccountNameDest);
+						cachedGroupIds.put(groupId,
+								String.valueOf(newGroupId));
+					}
+					if (newGroupId != null) {
+						if (groupIds == null) {
+							groupIds = new ArrayList<Long>();
+						}
+						groupIds.add(newGroupId);
+					}
+
+				} else {
+					String groupSourceId = groupIndex.getSourceId(groupId);
+					if (groupSourceId != null) {
+						if (groupSourceIds == null) {
+							groupSourceIds = new ArrayList<String>();
+						}
+						groupSourceIds.add(groupSourceId);
+					}
+				}
+			}
 		}
 
-		return rawContact;
+		/**
+		 * Reads the current row of a {@link RawContactQuery}-Cursor with
+		 * {@link RawContactQuery#PROJECTION_FULL}.
+		 */
+		void readRawContactRow(Cursor rC, boolean readLastModified) {
+			int starredInt = rC.getInt(RawContactQuery.COLUMN_STARRED);
+			starred = starredInt != 0;
+
+			int sendToVoiceInt = rC
+					.getInt(RawContactQuery.COLUMN_SEND_TO_VOICEMAIL);
+			sendToVoiceMail = sendToVoiceInt != 0;
+			customRingtone = rC
+					.getString(RawContactQuery.COLUMN_CUSTOM_RINGTONE);
+			if (readLastModified) {
+				lastModified = rC.isNull(RawContactQuery.COLUMN_LASTMOD) ? null
+						: new Date(
+								rC.getLong(RawContactQuery.COLUMN_LASTMOD));
+			}
+			version = rC.getLong(RawContactQuery.COLUMN_VERSION);
+		}
+
+		RawContact createRawContact(boolean forImport) {
+			// Now that we've extracted all the information we care about,
+			// create the actual User object.
+			RawContact rawContact;
+			if (forImport) {
+				rawContact = RawContact.create(fullName, firstName, lastName,
+						middleName, prefixName, suffixName, phoneFirstName,
+						phoneMiddleName, phoneLastName, phones, emails,
+						websites, addresses, events, relations, null,
+						nicknames, imAddresses, note, org, photo,
+						photoIsSuperPrimary, null, groupIds, starred,
+						customRingtone, sendToVoiceMail, lastModified, false,
+						-1, null, version);
+			} else {
+				rawContact = RawContact.create(fullName, firstName, lastName,
+						middleName, prefixName, suffixName, phoneFirstName,
+						phoneMiddleName, phoneLastName, phones, emails,
+						websites, addresses, events, relations, null,
+						nicknames, imAddresses, note, org, photo,
+						photoIsSuperPrimary, groupSourceIds, null, starred,
+						customRingtone, sendToVoiceMail, lastModified, false,
+						rawContactId, null, version);
+			}
+			return rawContact;
+		}
 	}
 
 	/**
@@ -2822,11 +3067,15 @@ public final class ContactManager {
 	}
 
 	private static byte[] readPhoto(Context context, long rawContactId,
-			String accountName, final Cursor c) throws IOException,
-			OperationApplicationException {
-		byte[] photo = c.getBlob(DataQuery.COLUMN_PHOTO_IMAGE);
+			String accountName, final Cursor c, Set<Long> photoIds)
+			throws IOException, OperationApplicationException {
+		final ContentResolver resolver = context.getContentResolver();
+		final long dataId = c.getLong(DataQuery.COLUMN_ID);
+		// The thumbnail is only loaded when it is needed for the hash or
+		// no better photo is available.
+		byte[] photo = null;
 
-		if (photo != null) {
+		if (isPhotoAvailable(resolver, dataId, photoIds)) {
 			boolean photoChanged = true;
 			if (accountName != null) {
 				int version = c.getInt(DataQuery.COLUMN_VERSION);
@@ -2839,12 +3088,19 @@ public final class ContactManager {
 					String hash = c.getString(DataQuery.COLUMN_SYNC1);
 					// Compare Hash
 					if (hash != null) {
-						Digest digest = new MD5Digest();
-						byte[] resBuf = new byte[digest.getDigestSize()];
-						digest.update(photo, 0, photo.length);
-						digest.doFinal(resBuf, 0);
-						String currHash = Base64.encodeToString(resBuf,
-								Base64.DEFAULT);
+						// Hash only when the row has changed since the last
+						// comparison
+						PhotoHashCache hashCache = PhotoHashCache
+								.getInstance(context);
+						String currHash = hashCache.getHash(dataId, version);
+						if (currHash == null) {
+							photo = loadPhoto(resolver, dataId);
+							if (photo == null) {
+								return null;
+							}
+							currHash = createPhotoHash(photo);
+							hashCache.putHash(dataId, version, currHash);
+						}
 						if (hash.equals(currHash)) {
 							photoChanged = false;
 						} else {
@@ -2864,26 +3120,14 @@ public final class ContactManager {
 				// Delete original photo if available
 				String photoFilename = c.getString(DataQuery.COLUMN_SYNC3);
 				if (!TextUtils.isEmpty(photoFilename)) {
-					File pFile = PhotoHelper.getPhotoFile(context,
-							photoFilename, accountName);
-					if (pFile.exists()) {
-						boolean deleted = pFile.delete();
-						if (!deleted) {
-							LogHelper.logW(
-									TAG,
-									"PhotFile could not be deleted:"
-											+ pFile.getAbsolutePath());
-						}
-					}
+					PhotoStore.deletePhoto(context, photoFilename, accountName);
 				}
 				if (!TextUtils.isEmpty(photoFilename)
 						|| !c.isNull(DataQuery.COLUMN_SYNC1)
 						|| !c.isNull(DataQuery.COLUMN_SYNC2)) {
 					// Delete metadata
 					final Uri uri = ContentUris.withAppendedId(
-							Data.CONTENT_URI, c.getLong(DataQuery.COLUMN_ID));
-					final ContentResolver resolver = context
-							.getContentResolver();
+							Data.CONTENT_URI, dataId);
 					final BatchOperation batchOperation = new BatchOperation(
 							resolver);
 					final ContactOperations contactOp = ContactOperations
@@ -2896,22 +3140,11 @@ public final class ContactManager {
 				// Load original photo or display-photo when available
 				String photoFilename = c.getString(DataQuery.COLUMN_SYNC3);
 				if (!TextUtils.isEmpty(photoFilename)) {
-					File pFile = PhotoHelper.getPhotoFile(context,
+					byte[] orgPhoto = PhotoStore.readPhoto(context,
 							photoFilename, accountName);
-					if (pFile.exists()) {
-						FileInputStream fos = null;
-						try {
-							fos = new FileInputStream(pFile);
-							byte[] buffer = new byte[(int) pFile.length()];
-							fos.read(buffer);
-							photo = buffer;
-							found = true;
-						} finally {
-							if (fos != null) {
-								fos.close();
-							}
-						}
-
+					if (orgPhoto != null) {
+						photo = orgPhoto;
+						found = true;
 					}
 				}
 			}
@@ -2924,28 +3157,54 @@ public final class ContactManager {
 						photoFileId);
 				if (displayPhoto != null) {
 					photo = displayPhoto;
+					found = true;
 				}
 			}
+			if (!found && photo == null) {
+				photo = loadPhoto(resolver, dataId);
+			}
 		}
 		return photo;
 	}
 
-	private static String getGroupSourceId(ContentResolver resolver,
-			long groupId) {
-		String sourceGroupId = null;
-		final Cursor cursor = resolver.query(Groups.CONTENT_URI,
-				new String[] { Groups.SOURCE_ID, }, Groups._ID + "=?",
-				new String[] { String.valueOf(groupId) }, null);
-		if (cursor != null) {
-			try {
-				if (cursor.moveToFirst()) {
-					sourceGroupId = cursor.getString(0);
-				}
-			} finally {
-				cursor.close();
-			}
+	/**
+	 * Loads the photo of a photo data row.
+	 * 
+	 * @return photo or null if the row has no photo
+	 */
+	private static byte[] loadPhoto(ContentResolver resolver, long dataId) {
+		final Cursor c = resolver.query(PhotoBlobQuery.CONTENT_URI,
+				PhotoBlobQuery.PROJECTION, PhotoBlobQuery.SELECTION,
+				new String[] { String.valueOf(dataId) }, null);
+		try {
+			return c.moveToFirst() ? c.getBlob(PhotoBlobQuery.COLUMN_PHOTO)
+					: null;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @param photoIds
+	 *            Ids of the photo data rows with a photo or null to query the
+	 *            row.
+	 * @return true if the photo data row contains a photo, without loading
+	 *         the photo.
+	 */
+	private static boolean isPhotoAvailable(ContentResolver resolver,
+			long dataId, Set<Long> photoIds) {
+		if (photoIds != null) {
+			return photoIds.contains(dataId);
+		}
+		final Cursor c = resolver.query(PhotoBlobQuery.CONTENT_URI,
+				PhotoBlobQuery.PROJECTION_ID,
+				PhotoBlobQuery.SELECTION_AVAILABLE,
+				new String[] { String.valueOf(dataId) }, null);
+		try {
+			return c.moveToFirst();
+		} finally {
+			c.close();
 		}
-		return sourceGroupId;
 	}
 
 	/**
@@ -3006,20 +3265,16 @@ public final class ContactManager {
 				DataQuery.PROJECTION, DataQuery.SELECTION_TYPE,
 				new String[] { String.valueOf(rawContactId),
 						Photo.CONTENT_ITEM_TYPE }, null);
-		while (c.moveToNext()) {
-			if (!c.isNull(DataQuery.COLUMN_SYNC3)) {
-				String fileName = c.getString(DataQuery.COLUMN_SYNC3);
-				// Delete old photo file.
-				File photoFile = PhotoHelper.getPhotoFile(context, fileName,
-						accountName);
-				if (photoFile.exists()) {
-					boolean deleted = photoFile.delete();
-					if (!deleted) {
-						LogHelper.logW(TAG, "Photo File could not be deleted:"
-								+ photoFile.getAbsolutePath());
-					}
+		try {
+			while (c.moveToNext()) {
+				if (!c.isNull(DataQuery.COLUMN_SYNC3)) {
+					// Delete old photo file.
+					PhotoStore.deletePhoto(context,
+							c.getString(DataQuery.COLUMN_SYNC3), accountName);
 				}
 			}
+		} finally {
+			c.close();
 		}
 	}
 
@@ -3104,6 +3359,12 @@ public final class ContactManager {
 		public static final String SELECTION = RawContacts.DIRTY + "=1 AND "
 				+ RawContacts.ACCOUNT_TYPE + "='" + Constants.ACCOUNT_TYPE
 				+ "' AND " + RawContacts.ACCOUNT_NAME + "=?";
+
+		/** Dirty contacts with a newer version than the saved version */
+		public static final String SELECTION_VERSION_CHANGED = SELECTION
+				+ " AND (" + RawContacts.SYNC3 + " IS NULL OR "
+				+ RawContacts.VERSION + ">CAST(" + RawContacts.SYNC3
+				+ " AS INTEGER))";
 	}
 
 	private static final class DirtyGroupQuery {
@@ -3187,38 +3448,43 @@ public final class ContactManager {
 	/**
 	 * Constants for a query to get contact data for a given rawContactId
 	 */
-	private static final class DataQuery {
+	static final class DataQuery {
 
 		private DataQuery() {
 		}
 
+		/**
+		 * All columns without the photo (DATA15), so that the photos don't
+		 * fill the cursor window. The photo is loaded with
+		 * {@link PhotoBlobQuery} when it is needed.
+		 */
 		public static final String[] PROJECTION = new String[] { Data._ID,
-				Data.MIMETYPE, Data.DATA1, Data.DATA2, Data.DATA3, Data.DATA15,
+				Data.MIMETYPE, Data.DATA1, Data.DATA2, Data.DATA3,
 				Data.IS_SUPER_PRIMARY, Data.DATA5, Data.DATA4, Data.DATA6,
 				Data.DATA7, Data.DATA8, Data.DATA9, Data.DATA10,
 				Data.DATA_VERSION, Data.SYNC1, Data.SYNC2, Data.SYNC3,
-				Data.DATA14, Data.IS_PRIMARY };
+				Data.DATA14, Data.IS_PRIMARY, Data.RAW_CONTACT_ID };
 
 		public static final int COLUMN_ID = 0;
 		public static final int COLUMN_MIMETYPE = 1;
 		public static final int COLUMN_DATA1 = 2;
 		public static final int COLUMN_DATA2 = 3;
 		public static final int COLUMN_DATA3 = 4;
-		public static final int COLUMN_DATA15 = 5;
-		public static final int COLUMN_IS_SUPER_PRIMARY = 6;
-		public static final int COLUMN_DATA5 = 7;
-		public static final int COLUMN_DATA4 = 8;
-		public static final int COLUMN_DATA6 = 9;
-		public static final int COLUMN_DATA7 = 10;
-		public static final int COLUMN_DATA8 = 11;
-		public static final int COLUMN_DATA9 = 12;
-		public static final int COLUMN_DATA10 = 13;
-		public static final int COLUMN_VERSION = 14;
-		public static final int COLUMN_SYNC1 = 15;
-		public static final int COLUMN_SYNC2 = 16;
-		public static final int COLUMN_SYNC3 = 17;
-		public static final int COLUMN_DATA14 = 18;
-		public static final int COLUMN_IS_PRIMARY = 19;
+		public static final int COLUMN_IS_SUPER_PRIMARY = 5;
+		public static final int COLUMN_DATA5 = 6;
+		public static final int COLUMN_DATA4 = 7;
+		public static final int COLUMN_DATA6 = 8;
+		public static final int COLUMN_DATA7 = 9;
+		public static final int COLUMN_DATA8 = 10;
+		public static final int COLUMN_DATA9 = 11;
+		public static final int COLUMN_DATA10 = 12;
+		public static final int COLUMN_VERSION = 13;
+		public static final int COLUMN_SYNC1 = 14;
+		public static final int COLUMN_SYNC2 = 15;
+		public static final int COLUMN_SYNC3 = 16;
+		public static final int COLUMN_DATA14 = 17;
+		public static final int COLUMN_IS_PRIMARY = 18;
+		public static final int COLUMN_RAW_CONTACT_ID = 19;
 
 		public static final Uri CONTENT_URI = Data.CONTENT_URI;
 
@@ -3276,7 +3542,6 @@ public final class ContactManager {
 		public static final int COLUMN_PHONECTIC_LAST = COLUMN_DATA9;
 
 		public static final int COLUMN_PHOTO_FILE_ID = COLUMN_DATA14;
-		public static final int COLUMN_PHOTO_IMAGE = COLUMN_DATA15;
 
 		public static final int COLUMN_GROUP_ROWID = COLUMN_DATA1;
 
@@ -3286,6 +3551,36 @@ public final class ContactManager {
 				+ "=? and " + Data.MIMETYPE + "=?";
 	}
 
+	/**
+	 * Constants for a query to read the photo of photo data rows.
+	 */
+	private static final class PhotoBlobQuery {
+
+		private PhotoBlobQuery() {
+		}
+
+		public static final String[] PROJECTION = new String[] { Data._ID,
+				Data.DATA_VERSION, Photo.PHOTO };
+
+		public static final String[] PROJECTION_ID = new String[] { Data._ID };
+
+		public static final int COLUMN_ID = 0;
+		public static final int COLUMN_VERSION = 1;
+		public static final int COLUMN_PHOTO = 2;
+
+		public static final Uri CONTENT_URI = Data.CONTENT_URI;
+
+		public static final String SELECTION = Data._ID + "=?";
+
+		public static final String SELECTION_AVAILABLE = Data._ID + "=? AND "
+				+ Photo.PHOTO + " IS NOT NULL";
+
+		public static final String SELECTION_AVAILABLE_TYPE = Data.MIMETYPE
+				+ "=? AND " + Photo.PHOTO + " IS NOT NULL AND ";
+
+		public static final String SELECTION_TYPE = DataQuery.SELECTION_TYPE;
+	}
+
 	/**
 	 * Constants for a query to read basic contact columns
 	 */
@@ -3323,9 +3618,30 @@ public final class ContactManager {
 
 		public static final String SERVER_SELECTION = RawContacts.SOURCE_ID
 				+ "=?";
+	}
+
+	/**
+	 * Constants for a query to read the fingerprint of raw contacts.
+	 */
+	private static final class RawContactFingerprintQuery {
+		private RawContactFingerprintQuery() {
+		}
+
+		public static final Uri CONTENT_URI = RawContacts.CONTENT_URI;
+
+		public static final String[] PROJECTION = new String[] {
+				RawContacts._ID, RawContacts.VERSION, RawContacts.SYNC3,
+				RawContacts.SYNC4, RawContacts.DIRTY };
+
+		public static final int COLUMN_ID = 0;
+
+		public static final int COLUMN_VERSION = 1;
 
-		public static final String VERSION_SELECTION = RawContacts._ID
-				+ "=? AND " + RawContacts.VERSION + "=?";
+		public static final int COLUMN_CLIENT_VERSION = 2;
+
+		public static final int COLUMN_FINGERPRINT = 3;
+
+		public static final int COLUMN_DIRTY = 4;
 	}
 
 	/**
@@ -3354,9 +3670,20 @@ public final class ContactManager {
 
 		public static final String SELECTION_NOTDIRTY = SELECTION_ALL + " AND "
 				+ Groups.DIRTY + " !=1";
+	}
+
+	/**
+	 * Uri to update the dirty flag of groups.
+	 */
+	private static final class GroupDirtyQuery {
+
+		private GroupDirtyQuery() {
+		}
 
-		public static final String VERSION_SELECTION = Groups._ID + "=? AND "
-				+ Groups.VERSION + "=?";
+		public static final Uri CONTENT_URI = Groups.CONTENT_URI
+				.buildUpon()
+				.appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER,
+						"true").build();
 	}
 
 	private static final class GroupAllQuery {
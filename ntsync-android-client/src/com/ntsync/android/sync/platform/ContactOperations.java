@@ -37,9 +37,7 @@ package com.ntsync.android.sync.platform;
  * the License.
  */
 
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Date;
 import java.util.UUID;
@@ -48,10 +46,7 @@ import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
-import android.os.Build;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.Event;
@@ -73,7 +68,6 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.ntsync.android.sync.shared.Constants;
-import com.ntsync.android.sync.shared.LogHelper;
 
 /**
  * Helper class for storing data in the platform content providers.
@@ -101,8 +95,6 @@ public class ContactOperations {
 	 */
 	private boolean mIsYieldAllowed;
 
-	private static final int COMPRESSION_THUMBNAIL_LOW = 90;
-
 	/**
 	 * Returns an instance of ContactOperations instance for adding new contact
 	 * to the platform contacts provider.
@@ -113,15 +105,18 @@ public class ContactOperations {
 	 *            the username for the SyncAdapter account
 	 * @param isSyncOperation
 	 *            are we executing this as part of a sync operation?
+	 * @param fingerprint
+	 *            hash of the applied server values, can be null
 	 * @return instance of ContactOperations
 	 */
 	public static ContactOperations createNewContact(String serverRowId,
 			String accountName, boolean starred, String customRingTone,
 			boolean sendToVoiceMail, Date clientModDate,
-			boolean isSyncOperation, BatchOperation batchOperation) {
+			boolean isSyncOperation, String fingerprint,
+			BatchOperation batchOperation) {
 		return new ContactOperations(serverRowId, accountName, starred,
 				customRingTone, sendToVoiceMail, clientModDate,
-				isSyncOperation, batchOperation);
+				isSyncOperation, fingerprint, batchOperation);
 	}
 
 	/**
@@ -150,7 +145,7 @@ public class ContactOperations {
 
 	public ContactOperations(String serverRowId, String accountName,
 			boolean starred, String customRingTone, boolean sendToVoiceMail,
-			Date clientModDate, boolean isSyncOperation,
+			Date clientModDate, boolean isSyncOperation, String fingerprint,
 			BatchOperation batchOperation) {
 		this(isSyncOperation, batchOperation);
 		mBackReference = mBatchOperation.size();
@@ -167,6 +162,9 @@ public class ContactOperations {
 		}
 		// Assume Version 1 (will be validate again)
 		mValues.put(RawContacts.SYNC3, 1);
+		if (fingerprint != null) {
+			mValues.put(RawContacts.SYNC4, fingerprint);
+		}
 		if (starred) {
 			mValues.put(RawContacts.STARRED, 1);
 		}
@@ -547,20 +545,12 @@ public class ContactOperations {
 		// Scale down to prevent ContentValues size limit restriction.
 		byte[] contactPhoto = photo != null && photo.length > 0 ? photo : null;
 		if (contactPhoto != null) {
-			Bitmap map = BitmapFactory.decodeByteArray(photo, 0, photo.length);
-			if (map != null) {
-				int size = getDisplaySize(context);
-				if (Log.isLoggable(TAG, Log.INFO)) {
-					Log.i(TAG,
-							"save Photo size: " + map.getWidth() + "x"
-									+ map.getHeight() + " displaySize:" + size);
-				}
-				Bitmap normMap = PhotoHelper.getNormalizedBitmap(map, size);
-				if (normMap != map && normMap != null) {
-					// Write scaled version
-					contactPhoto = PhotoHelper.getCompressedBytes(normMap,
-							COMPRESSION_THUMBNAIL_LOW);
-				}
+			PhotoProcessor processor = mBatchOperation.getPhotoProcessor();
+			if (processor != null) {
+				contactPhoto = processor.getScaledPhoto(photo);
+			} else {
+				contactPhoto = PhotoHelper.scalePhoto(photo,
+						PhotoHelper.getDisplaySize(context));
 			}
 		}
 		boolean updateDB = false;
@@ -600,30 +590,15 @@ public class ContactOperations {
 			updateDB = true;
 
 			if (saveOrgFile) {
-				File photoFile = PhotoHelper.getPhotoFile(context,
-						orgFilename.toString(), accountName);
-				FileOutputStream st = new FileOutputStream(photoFile);
-				try {
-					st.write(photo);
-					st.close();
-				} finally {
-					st.close();
-				}
+				PhotoStore.writePhoto(context, orgFilename.toString(),
+						accountName, photo);
 			}
 		}
 
 		// Delete old file
 		if (existingFilename != null) {
 			// Cleanup. Delete old photo file.
-			File photoFile = PhotoHelper.getPhotoFile(context,
-					existingFilename, accountName);
-			if (photoFile.exists()) {
-				boolean deleted = photoFile.delete();
-				if (!deleted) {
-					LogHelper.logW(TAG, "PhotoFile could not be deleted: "
-							+ photoFile.getPath());
-				}
-			}
+			PhotoStore.deletePhoto(context, existingFilename, accountName);
 		}
 		return updateDB;
 	}
@@ -638,16 +613,6 @@ public class ContactOperations {
 		return this;
 	}
 
-	private int getDisplaySize(Context context) {
-		int dim;
-		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-			dim = 96;
-		} else {
-			dim = ICSPhotoHelper.getDisplayPhotoSize(context);
-		}
-		return dim;
-	}
-
 	/**
 	 * Updates contact's serverId
 	 * 
@@ -685,6 +650,9 @@ public class ContactOperations {
 	 * 
 	 * @param serverId
 	 *            the serverId for this contact
+	 * @param clientMod
+	 *            date of a local modification or null if the version is only
+	 *            validated
 	 * @param uri
 	 *            Uri for the existing raw contact to be updated
 	 * @return instance of ContactOperations
@@ -692,10 +660,7 @@ public class ContactOperations {
 	public ContactOperations updateClientMod(Long version, Long clientMod,
 			Uri uri) {
 		mValues.clear();
-		if (clientMod != null) {
-			mValues.put(RawContacts.SYNC2, clientMod);
-		}
-		mValues.put(RawContacts.SYNC3, version);
+		mValues.putAll(createClientModValues(version, clientMod));
 		if (Log.isLoggable(TAG, Log.INFO)) {
 			Log.i(TAG, "ClientMod updated: "
 					+ (clientMod != null ? new Date(clientMod).toString()
@@ -706,6 +671,21 @@ public class ContactOperations {
 		return this;
 	}
 
+	/**
+	 * @return values for {@link #updateClientMod(Long, Long, Uri)}. A local
+	 *         modification clears the fingerprint of the last applied server
+	 *         values, because the contact has other values now.
+	 */
+	static ContentValues createClientModValues(Long version, Long clientMod) {
+		ContentValues values = new ContentValues();
+		if (clientMod != null) {
+			values.put(RawContacts.SYNC2, clientMod);
+			values.putNull(RawContacts.SYNC4);
+		}
+		values.put(RawContacts.SYNC3, version);
+		return values;
+	}
+
 	/**
 	 * Updates contact's email
 	 * 
@@ -761,7 +741,7 @@ public class ContactOperations {
 			boolean existingStarred, String customRingtone,
 			String existingRingtone, boolean sendToVoicemail,
 			boolean existingSendToVoicemail, long rawContactId, Long contactId,
-			Date lastModification, long currVersion) {
+			Date lastModification, long currVersion, String fingerprint) {
 		mValues.clear();
 
 		boolean updateContact = false;
@@ -785,6 +765,7 @@ public class ContactOperations {
 			}
 		}
 		mValues.put(RawContacts.SYNC3, currVersion + 1);
+		mValues.put(RawContacts.SYNC4, fingerprint);
 		Uri uri = ContentUris.withAppendedId(RawContacts.CONTENT_URI,
 				rawContactId);
 		addUpdateOp(uri);
@@ -1051,11 +1032,12 @@ public class ContactOperations {
 		ContentProviderOperation.Builder builder = newInsertCpo(
 				Data.CONTENT_URI, mIsSyncOperation, mIsYieldAllowed);
 		builder.withValues(mValues);
+		mIsYieldAllowed = false;
 		if (mIsNewContact) {
-			builder.withValueBackReference(Data.RAW_CONTACT_ID, mBackReference);
+			mBatchOperation.add(builder, Data.RAW_CONTACT_ID, mBackReference);
+		} else {
+			mBatchOperation.add(builder.build());
 		}
-		mIsYieldAllowed = false;
-		mBatchOperation.add(builder.build());
 	}
 
 	/**
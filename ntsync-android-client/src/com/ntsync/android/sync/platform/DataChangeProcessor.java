@@ -0,0 +1,179 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ntsync.android.sync.shared.Constants;
+import com.ntsync.android.sync.shared.LogHelper;
+import com.ntsync.android.sync.shared.SyncUtils;
+
+/**
+ * Processes the data change notifications of the contacts provider. The
+ * notifications of a burst of changes (p.e. an import in another app) are
+ * collected, and the client modification dates are updated once when no
+ * further change was notified for the quiet window, but at the latest after
+ * the max. delay. Accounts which were scanned by a sync after the last change
+ * are skipped.
+ */
+final class DataChangeProcessor implements Runnable {
+
+	/** Default time without changes before the changes are processed. */
+	static final long DEFAULT_QUIET_WINDOW_MS = 2000;
+
+	/** Default max. time from the first change until they are processed. */
+	static final long DEFAULT_MAX_DELAY_MS = 10000;
+
+	private static final String TAG = "DataChangeProcessor";
+
+	private final Context context;
+
+	private final long quietWindowMs;
+
+	private final long maxDelayMs;
+
+	private final Semaphore gate = new Semaphore(0, true);
+
+	private final AtomicInteger notificationCount = new AtomicInteger();
+
+	private final AtomicInteger burstCount = new AtomicInteger();
+
+	private final AtomicInteger scanCount = new AtomicInteger();
+
+	private final AtomicInteger skippedScanCount = new AtomicInteger();
+
+	private volatile long maxLatency;
+
+	/**
+	 *
+	 * @param context
+	 * @param quietWindowMs
+	 *            time without changes before the changes are processed
+	 * @param maxDelayMs
+	 *            max. time from the first change until the changes are
+	 *            processed, even when further changes are notified.
+	 */
+	DataChangeProcessor(Context context, long quietWindowMs, long maxDelayMs) {
+		this.context = context;
+		this.quietWindowMs = quietWindowMs;
+		this.maxDelayMs = maxDelayMs;
+	}
+
+	/**
+	 * Notifies a change in the contacts provider.
+	 */
+	void notifyChange() {
+		notificationCount.incrementAndGet();
+		gate.release();
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				gate.acquire();
+				long firstChange = SystemClock.elapsedRealtime();
+				long lastChange = waitForQuietWindow(firstChange);
+				SyncUtils.beginDataChangeProcessing();
+				try {
+					processChanges(lastChange);
+				} finally {
+					SyncUtils.endDataChangeProcessing();
+				}
+				updateStatistic(firstChange);
+			}
+		} catch (InterruptedException ex) {
+			LogHelper.logI(TAG, "DataChangeProcessor stopped", ex);
+		}
+	}
+
+	/**
+	 * Waits until no change was notified for the quiet window or the max.
+	 * delay is reached.
+	 *
+	 * @return time of the last notified change
+	 */
+	private long waitForQuietWindow(long firstChange)
+			throws InterruptedException {
+		long lastChange = firstChange;
+		while (true) {
+			// Eat all Permits because our method handle all
+			// notifications.
+			gate.drainPermits();
+			long deadline = Math.min(lastChange + quietWindowMs, firstChange
+					+ maxDelayMs);
+			long waitTime = deadline - SystemClock.elapsedRealtime();
+			if (waitTime <= 0
+					|| !gate.tryAcquire(waitTime, TimeUnit.MILLISECONDS)) {
+				return lastChange;
+			}
+			lastChange = SystemClock.elapsedRealtime();
+		}
+	}
+
+	private void processChanges(long lastChange) {
+		// Contacts could be added or deleted
+		ContactCountCache.invalidateAll();
+		AccountManager acm = AccountManager.get(context);
+		Account[] accounts = acm.getAccountsByType(Constants.ACCOUNT_TYPE);
+		for (Account account : accounts) {
+			if (ContactManager.getLastClientModScan(account.name) > lastChange) {
+				// A sync has already updated the account after the changes
+				skippedScanCount.incrementAndGet();
+				continue;
+			}
+			scanCount.incrementAndGet();
+			try {
+				ContactManager.updateClientModDate(context, account);
+			} catch (IOException e) {
+				if (Log.isLoggable(TAG, Log.WARN)) {
+					Log.w(TAG, "Update ClientModificationDate failed for "
+							+ account.name, e);
+				}
+			} catch (OperationApplicationException e) {
+				if (Log.isLoggable(TAG, Log.WARN)) {
+					Log.w(TAG, "Update ClientModificationDate failed for "
+							+ account.name, e);
+				}
+			}
+		}
+	}
+
+	private void updateStatistic(long firstChange) {
+		long latency = SystemClock.elapsedRealtime() - firstChange;
+		maxLatency = Math.max(maxLatency, latency);
+		burstCount.incrementAndGet();
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, "Processed changes after " + latency + " ms. Bursts: "
+					+ burstCount + " Notifications: " + notificationCount
+					+ " Scans: " + scanCount + " Skipped Scans: "
+					+ skippedScanCount + " Max. Latency: " + maxLatency
+					+ " ms");
+		}
+	}
+}
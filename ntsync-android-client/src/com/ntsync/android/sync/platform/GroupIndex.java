@@ -0,0 +1,156 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract.Groups;
+
+import com.ntsync.android.sync.platform.ContactManager.GroupQuery;
+
+/**
+ * Maps the source ids of the groups of an account to the row ids and back.
+ * The index is loaded once for a sync with {@link #load()} and updated when
+ * groups are inserted, deleted or get a source id. Groups which are not in
+ * the index (p.e. created during the sync) are searched in the contacts
+ * provider.
+ */
+public final class GroupIndex {
+
+	private static final String[] PROJECTION = new String[] { Groups._ID,
+			Groups.SOURCE_ID };
+
+	private static final int COLUMN_ID = 0;
+
+	private static final int COLUMN_SOURCE_ID = 1;
+
+	private final ContentResolver resolver;
+
+	private final String accountName;
+
+	private final Map<String, Long> rowIds = new HashMap<String, Long>();
+
+	private final Map<Long, String> sourceIds = new HashMap<Long, String>();
+
+	/**
+	 * Creates an empty index, the groups are searched when they are used.
+	 */
+	public GroupIndex(ContentResolver resolver, String accountName) {
+		this.resolver = resolver;
+		this.accountName = accountName;
+	}
+
+	/**
+	 * Creates an index with all groups of the account.
+	 */
+	public static GroupIndex load(ContentResolver resolver, String accountName) {
+		GroupIndex index = new GroupIndex(resolver, accountName);
+		index.load();
+		return index;
+	}
+
+	/**
+	 * Reads all groups of the account with one query.
+	 */
+	public void load() {
+		final Cursor c = resolver.query(GroupQuery.CONTENT_URI, PROJECTION,
+				GroupQuery.SELECTION_ALL, new String[] { accountName }, null);
+		try {
+			while (c.moveToNext()) {
+				put(c.getLong(COLUMN_ID), c.getString(COLUMN_SOURCE_ID));
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return row id of the group or null if the account has no group with
+	 *         this source id.
+	 */
+	public Long getRowId(String sourceId) {
+		Long rowId = rowIds.get(sourceId);
+		if (rowId == null) {
+			final Cursor c = resolver.query(GroupQuery.CONTENT_URI,
+					GroupQuery.PROJECTION, GroupQuery.SELECTION, new String[] {
+							sourceId, accountName }, null);
+			try {
+				if (c.moveToNext()) {
+					rowId = c.getLong(GroupQuery.COLUMN_ID);
+					put(rowId, sourceId);
+				}
+			} finally {
+				c.close();
+			}
+		}
+		return rowId;
+	}
+
+	/**
+	 * @return source id of the group or null if the group has no source id or
+	 *         doesn't exist.
+	 */
+	public String getSourceId(long rowId) {
+		Long key = rowId;
+		if (sourceIds.containsKey(key)) {
+			return sourceIds.get(key);
+		}
+		String sourceId = null;
+		final Cursor c = resolver.query(Groups.CONTENT_URI,
+				new String[] { Groups.SOURCE_ID }, Groups._ID + "=?",
+				new String[] { String.valueOf(rowId) }, null);
+		if (c != null) {
+			try {
+				if (c.moveToFirst()) {
+					sourceId = c.getString(0);
+					put(rowId, sourceId);
+				}
+			} finally {
+				c.close();
+			}
+		}
+		return sourceId;
+	}
+
+	/**
+	 * Adds a group or updates the source id of a group.
+	 */
+	public void put(long rowId, String sourceId) {
+		String oldSourceId = sourceIds.put(rowId, sourceId);
+		if (oldSourceId != null) {
+			rowIds.remove(oldSourceId);
+		}
+		if (sourceId != null) {
+			rowIds.put(sourceId, rowId);
+		}
+	}
+
+	/**
+	 * Removes a deleted group.
+	 */
+	public void remove(long rowId) {
+		String sourceId = sourceIds.remove(rowId);
+		if (sourceId != null) {
+			rowIds.remove(sourceId);
+		}
+	}
+}
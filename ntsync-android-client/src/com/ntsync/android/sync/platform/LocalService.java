@@ -18,7 +18,6 @@ package com.ntsync.android.sync.platform;
  * <http://www.gnu.org/licenses/gpl-3.0.html>. 
  */
 
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.Service;
@@ -42,8 +41,7 @@ public class LocalService extends Service {
 	private static final String TAG = "LocalService";
 	private Thread thread;
 	private DataChangeObserver observer;
-
-	final Semaphore gate = new Semaphore(0, true);
+	private DataChangeProcessor processor;
 
 	private static final AtomicBoolean STARTED = new AtomicBoolean();
 
@@ -60,7 +58,10 @@ public class LocalService extends Service {
 		STARTED.set(true);
 		SystemHelper.initSystem(this, false);
 
-		thread = new Thread(new DataWorkerThread(), "DataChangeProcessor");
+		processor = new DataChangeProcessor(this,
+				DataChangeProcessor.DEFAULT_QUIET_WINDOW_MS,
+				DataChangeProcessor.DEFAULT_MAX_DELAY_MS);
+		thread = new Thread(processor, "DataChangeProcessor");
 		thread.start();
 
 		observer = new DataChangeObserver();
@@ -99,27 +100,6 @@ public class LocalService extends Service {
 		return null;
 	}
 
-	private class DataWorkerThread implements Runnable {
-		public void run() {
-			try {
-				while (true) {
-					gate.acquire();
-					// Eat all Permits because our method handle all
-					// notifications.
-					gate.drainPermits();
-					try {
-						SyncUtils.stopProcessDataChanges();
-						ContactManager.checkForModifications(LocalService.this);
-					} finally {
-						SyncUtils.startProcessDataChanges();
-					}
-				}
-			} catch (InterruptedException ex) {
-				LogHelper.logI(TAG, "DataWorkerThread stopped", ex);
-			}
-		}
-	}
-
 	private class DataChangeObserver extends ContentObserver {
 
 		public DataChangeObserver() {
@@ -130,7 +110,7 @@ public class LocalService extends Service {
 		public void onChange(boolean selfChange) {
 			// Only process when change was not from program code
 			if (SyncUtils.processDataChanges()) {
-				gate.release();
+				processor.notifyChange();
 			}
 		}
 	}
@@ -0,0 +1,170 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+
+import com.ntsync.android.sync.shared.LogHelper;
+
+/**
+ * Persistent cache for the hash values of photo blobs. The entries are keyed
+ * by the id and the version of the data row, so a photo is only hashed again
+ * when its row has changed.
+ */
+final class PhotoHashCache {
+
+	private static final String TAG = "PhotoHashCache";
+
+	private static final String FILENAME = "photohash.cache";
+
+	private static final int FILE_VERSION = 1;
+
+	private static final int MAX_ENTRIES = 5000;
+
+	private static PhotoHashCache instance;
+
+	private final Map<Long, Entry> entries;
+
+	private boolean modified = false;
+
+	private PhotoHashCache() {
+		entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				return size() > MAX_ENTRIES;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cache and loads it from the file on the first call.
+	 */
+	public static synchronized PhotoHashCache getInstance(Context context) {
+		if (instance == null) {
+			instance = new PhotoHashCache();
+			instance.load(getFile(context));
+		}
+		return instance;
+	}
+
+	/**
+	 * @return cached hash or null if the photo of this row version was not
+	 *         hashed.
+	 */
+	public synchronized String getHash(long dataId, int version) {
+		Entry entry = entries.get(dataId);
+		return entry != null && entry.version == version ? entry.hash : null;
+	}
+
+	public synchronized void putHash(long dataId, int version, String hash) {
+		entries.put(dataId, new Entry(version, hash));
+		modified = true;
+	}
+
+	/**
+	 * Saves the cache if entries were added since the last save.
+	 */
+	public synchronized void save(Context context) {
+		if (!modified) {
+			return;
+		}
+		File file = getFile(context);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file)));
+			out.writeInt(FILE_VERSION);
+			out.writeInt(entries.size());
+			for (Map.Entry<Long, Entry> mapEntry : entries.entrySet()) {
+				out.writeLong(mapEntry.getKey());
+				out.writeInt(mapEntry.getValue().version);
+				out.writeUTF(mapEntry.getValue().hash);
+			}
+			out.close();
+			out = null;
+			modified = false;
+		} catch (IOException ex) {
+			LogHelper.logW(TAG, "Could not save photo hash cache", ex);
+		} finally {
+			close(out);
+		}
+	}
+
+	private void load(File file) {
+		if (!file.exists()) {
+			return;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() == FILE_VERSION) {
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					long dataId = in.readLong();
+					int version = in.readInt();
+					entries.put(dataId, new Entry(version, in.readUTF()));
+				}
+			}
+		} catch (IOException ex) {
+			LogHelper.logW(TAG, "Could not load photo hash cache", ex);
+			entries.clear();
+		} finally {
+			close(in);
+		}
+	}
+
+	private static File getFile(Context context) {
+		return new File(context.getCacheDir(), FILENAME);
+	}
+
+	private static void close(Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException ex) {
+				LogHelper.logD(TAG, "Could not close photo hash cache", ex);
+			}
+		}
+	}
+
+	private static final class Entry {
+		private final int version;
+		private final String hash;
+
+		Entry(int version, String hash) {
+			this.version = version;
+			this.hash = hash;
+		}
+	}
+}
@@ -42,10 +42,13 @@ import java.io.IOException;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.os.Build;
+import android.util.Log;
 
 public final class PhotoHelper {
 
@@ -53,8 +56,61 @@ public final class PhotoHelper {
 
 	}
 
+	private static final String TAG = "PhotoHelper";
+
+	private static final int COMPRESSION_THUMBNAIL_LOW = 90;
+
 	private static final Paint WHITE_PAINT = new Paint();
 
+	/**
+	 * Max. size of the photo in the contacts database.
+	 */
+	static int getDisplaySize(Context context) {
+		int dim;
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			dim = 96;
+		} else {
+			dim = ICSPhotoHelper.getDisplayPhotoSize(context);
+		}
+		return dim;
+	}
+
+	/**
+	 * Scales down the photo to the display size.
+	 * 
+	 * @return scaled and compressed photo or the photo itself, if it does not
+	 *         have to be scaled.
+	 * @throws IOException
+	 *             if the scaled photo could not be compressed.
+	 */
+	static byte[] scalePhoto(byte[] photo, int maxDim) throws IOException {
+		byte[] scaledPhoto = photo;
+		BitmapFactory.Options bounds = decodeBounds(photo);
+		if (Log.isLoggable(TAG, Log.INFO)) {
+			Log.i(TAG, "save Photo size: " + bounds.outWidth + "x"
+					+ bounds.outHeight + " displaySize:" + maxDim);
+		}
+		// Decode only as many pixels as needed for the display size
+		Bitmap map = null;
+		if (bounds.outWidth > 0 && bounds.outHeight > 0) {
+			map = decodeSampledBitmap(photo, bounds, maxDim);
+		}
+		if (map != null) {
+			Bitmap normMap = getNormalizedBitmap(map, maxDim);
+			if ((normMap != map || bounds.inSampleSize > 1) && normMap != null) {
+				// Write scaled version
+				scaledPhoto = getCompressedBytes(normMap,
+						COMPRESSION_THUMBNAIL_LOW);
+			}
+			// Release the pixel memory before the next photo is decoded
+			if (normMap != null && normMap != map) {
+				normMap.recycle();
+			}
+			map.recycle();
+		}
+		return scaledPhoto;
+	}
+
 	/**
 	 * Scales down the original bitmap to fit within the given maximum width and
 	 * height. If the bitmap already fits in those dimensions, the original
@@ -107,6 +163,50 @@ public final class PhotoHelper {
 		}
 	}
 
+	/**
+	 * Reads only the dimensions of the encoded image.
+	 * 
+	 * @return options with outWidth and outHeight, which are -1 if the image
+	 *         could not be decoded.
+	 */
+	static BitmapFactory.Options decodeBounds(byte[] photo) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(photo, 0, photo.length, options);
+		return options;
+	}
+
+	/**
+	 * Calculates the largest power of two sample size which keeps both sides
+	 * of the decoded image at least as large as maxDim, so that the image can
+	 * still be scaled down to exactly maxDim.
+	 */
+	static int calculateSampleSize(int width, int height, int maxDim) {
+		int sampleSize = 1;
+		int maxSide = Math.max(width, height);
+		while (maxSide / (sampleSize * 2) >= maxDim) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	/**
+	 * Decodes the image with a sample size for the given maximum dimension,
+	 * so that large images are never decoded in their full resolution.
+	 * 
+	 * @param bounds
+	 *            dimensions from {@link #decodeBounds(byte[])}. inSampleSize
+	 *            is set to the used sample size.
+	 * @return decoded bitmap or null if the image could not be decoded.
+	 */
+	static Bitmap decodeSampledBitmap(byte[] photo,
+			BitmapFactory.Options bounds, int maxDim) {
+		bounds.inSampleSize = calculateSampleSize(bounds.outWidth,
+				bounds.outHeight, maxDim);
+		bounds.inJustDecodeBounds = false;
+		return BitmapFactory.decodeByteArray(photo, 0, photo.length, bounds);
+	}
+
 	/**
 	 * Helper method to compress the given bitmap as a JPEG and return the
 	 * resulting byte array.
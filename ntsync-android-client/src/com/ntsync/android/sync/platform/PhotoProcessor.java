@@ -0,0 +1,141 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Process;
+
+/**
+ * Scales the photos of the next contacts on a small worker pool, while the
+ * current batch is applied. The number of workers limits the count of photos
+ * which are decoded at the same time.
+ */
+final class PhotoProcessor {
+
+	/**
+	 * Min. count of contacts for which the photos are prepared ahead. Until
+	 * the size of a batch is known, only these photos are prepared.
+	 */
+	static final int MIN_PREFETCH_COUNT = 8;
+
+	private static final int MAX_WORKERS = 2;
+
+	private final int displaySize;
+
+	private final ExecutorService executor;
+
+	private final Map<byte[], Future<byte[]>> pending = new IdentityHashMap<byte[], Future<byte[]>>();
+
+	PhotoProcessor(int displaySize) {
+		this.displaySize = displaySize;
+		int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime()
+				.availableProcessors() - 1));
+		executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						Process.setThreadPriority(
+								Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, "PhotoProcessor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts scaling the photo in the background.
+	 */
+	void prepare(final byte[] photo) {
+		if (photo == null || photo.length == 0 || pending.containsKey(photo)) {
+			return;
+		}
+		pending.put(photo, executor.submit(new Callable<byte[]>() {
+			public byte[] call() throws IOException {
+				return PhotoHelper.scalePhoto(photo, displaySize);
+			}
+		}));
+	}
+
+	/**
+	 * Returns the scaled photo, waits for the worker if the photo was
+	 * prepared, otherwise the photo is scaled in the calling thread.
+	 *
+	 * @see PhotoHelper#scalePhoto(byte[], int)
+	 */
+	byte[] getScaledPhoto(byte[] photo) throws IOException {
+		Future<byte[]> future = pending.remove(photo);
+		if (future == null) {
+			return PhotoHelper.scalePhoto(photo, displaySize);
+		}
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			IOException ex = new IOException("Scaling photo interrupted");
+			ex.initCause(e);
+			throw ex;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			IOException ex = new IOException("Scaling photo failed");
+			ex.initCause(cause);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Drops a prepared photo which was not used.
+	 */
+	void release(byte[] photo) {
+		if (photo != null) {
+			Future<byte[]> future = pending.remove(photo);
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Cancels the pending photos and stops the workers.
+	 */
+	void shutdown() {
+		pending.clear();
+		executor.shutdownNow();
+	}
+}
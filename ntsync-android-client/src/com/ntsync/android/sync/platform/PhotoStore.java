@@ -0,0 +1,124 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+
+import com.ntsync.android.sync.shared.LogHelper;
+
+/**
+ * Stores the original photos of the contacts in the directory of the account.
+ */
+final class PhotoStore {
+
+	private static final String TAG = "PhotoStore";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private PhotoStore() {
+	}
+
+	/**
+	 * Reads an original photo.
+	 *
+	 * @return photo or null if no file exists for the photo.
+	 * @throws IOException
+	 *             if the file could not be read completely.
+	 */
+	static byte[] readPhoto(Context context, String filename,
+			String accountName) throws IOException {
+		File file = PhotoHelper.getPhotoFile(context, filename, accountName);
+		if (!file.exists()) {
+			return null;
+		}
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Photo file too big: " + file.getPath());
+			}
+			byte[] photo = new byte[(int) size];
+			ByteBuffer buffer = ByteBuffer.wrap(photo);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("Photo file truncated: "
+							+ file.getPath());
+				}
+			}
+			return photo;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes an original photo. The photo is written to a temporary file
+	 * first, so that an existing photo is never replaced by a partly written
+	 * file.
+	 */
+	static void writePhoto(Context context, String filename,
+			String accountName, byte[] photo) throws IOException {
+		File file = PhotoHelper.getPhotoFile(context, filename, accountName);
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		FileOutputStream out = new FileOutputStream(tempFile);
+		boolean written = false;
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.wrap(photo);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			out.close();
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Photo file could not be renamed to "
+						+ file.getPath());
+			}
+			written = true;
+		} finally {
+			out.close();
+			if (!written) {
+				deleteFile(tempFile);
+			}
+		}
+	}
+
+	/**
+	 * Deletes an original photo, if it exists.
+	 */
+	static void deletePhoto(Context context, String filename,
+			String accountName) {
+		deleteFile(PhotoHelper.getPhotoFile(context, filename, accountName));
+	}
+
+	private static void deleteFile(File file) {
+		if (file.exists() && !file.delete()) {
+			LogHelper.logW(TAG,
+					"Photo file could not be deleted: " + file.getPath());
+		}
+	}
+}
@@ -23,6 +23,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -47,7 +48,12 @@ import com.ntsync.shared.Restrictions;
 
 public final class SyncUtils {
 
-	private static final Semaphore CHANGES_LOCK = new Semaphore(1);
+	/**
+	 * Syncs hold the read lock, so that the syncs of several accounts can run
+	 * in parallel. The processing of data changes holds the write lock.
+	 */
+	private static final ReentrantReadWriteLock CHANGES_LOCK = new ReentrantReadWriteLock(
+			true);
 
 	private static final String SYNC_RESTRICTIONS_PHOTOSUPPORT = "com.ntsync.android.sync.restrict.photosupport";
 	private static final String SYNC_RESTRICTIONS_MAXCONTACTS = "com.ntsync.android.sync.restrict.maxcontacts";
@@ -165,15 +171,31 @@ public final class SyncUtils {
 	 * @throws InterruptedException 
 	 */
 	public static void stopProcessDataChanges() throws InterruptedException {
-		CHANGES_LOCK.acquire();
+		CHANGES_LOCK.readLock().lockInterruptibly();
 	}
 
 	public static void startProcessDataChanges() {
-		CHANGES_LOCK.release();
+		CHANGES_LOCK.readLock().unlock();
+	}
+
+	/**
+	 * Waits until no sync is running and prevents syncs while the data
+	 * changes are processed. Should be in a finally with
+	 * {@link #endDataChangeProcessing()}.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public static void beginDataChangeProcessing() throws InterruptedException {
+		CHANGES_LOCK.writeLock().lockInterruptibly();
+	}
+
+	public static void endDataChangeProcessing() {
+		CHANGES_LOCK.writeLock().unlock();
 	}
 
 	public static boolean processDataChanges() {
-		return CHANGES_LOCK.availablePermits() > 0;
+		return !CHANGES_LOCK.isWriteLocked()
+				&& CHANGES_LOCK.getReadLockCount() == 0;
 	}
 
 	/**
@@ -39,6 +39,7 @@ package com.ntsync.android.sync.syncadapter;
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -53,6 +54,7 @@ import android.accounts.AccountManager;
 import android.accounts.AuthenticatorException;
 import android.accounts.NetworkErrorException;
 import android.accounts.OperationCanceledException;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -63,6 +65,7 @@ import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncResult;
 import android.net.wifi.WifiManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
@@ -79,7 +82,9 @@ import com.ntsync.android.sync.client.ClientKeyHelper;
 import com.ntsync.android.sync.client.ClientKeyHelper.PrivateKeyState;
 import com.ntsync.android.sync.client.NetworkUtilities;
 import com.ntsync.android.sync.client.ServerException;
+import com.ntsync.android.sync.platform.ContactCountCache;
 import com.ntsync.android.sync.platform.ContactManager;
+import com.ntsync.android.sync.platform.GroupIndex;
 import com.ntsync.android.sync.platform.RestrictionConflictHandler;
 import com.ntsync.android.sync.shared.AccountSyncResult;
 import com.ntsync.android.sync.shared.Constants;
@@ -133,6 +138,20 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 		mAccountManager = AccountManager.get(context);
 	}
 
+	/**
+	 * Creates a SyncAdapter which syncs several accounts in parallel. The
+	 * contacts of an account are applied with an account lock (see
+	 * ContactManager), so that the network phase of one account overlaps with
+	 * the apply phase of another account.
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	public SyncAdapter(Context context, boolean autoInitialize,
+			boolean allowParallelSyncs) {
+		super(context, autoInitialize, allowParallelSyncs);
+		mContext = context;
+		mAccountManager = AccountManager.get(context);
+	}
+
 	@Override
 	public void onPerformSync(Account account, Bundle extras, String authority,
 			ContentProviderClient provider, SyncResult syncResult) {
@@ -156,16 +175,20 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 		AccountSyncResult ourSyncResult = new AccountSyncResult(account.name);
 		try {
 			SyncUtils.stopProcessDataChanges();
-			performSync(account, extras, syncResult, ourSyncResult);
+			try {
+				performSync(account, extras, syncResult, ourSyncResult);
 
-			updateClientMod(account);
+				updateClientMod(account);
+			} finally {
+				SyncUtils.startProcessDataChanges();
+			}
 		} catch (InterruptedException e1) {
 			LogHelper.logWCause(TAG, "Failed to sync.", e1);
 			syncResult.databaseError = true;
 		} finally {
-			SyncUtils.startProcessDataChanges();
 			ourSyncResult.setLastSyncTime(new Date());
 			SyncUtils.setSyncResult(mAccountManager, account, ourSyncResult);
+			ContactCountCache.invalidate(account.name);
 		}
 	}
 
@@ -256,6 +279,8 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 
 			// Update ClientMod if not already set.
 			ContactManager.updateClientModDate(mContext, account);
+			GroupIndex groupIndex = GroupIndex.load(
+					mContext.getContentResolver(), account.name);
 			// Get local Dirty Groups
 			List<ContactGroup> dirtyGroups = ContactManager.getDirtyGroups(
 					mContext, account, restr);
@@ -276,12 +301,15 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 
 			List<RawContact> dirtyContacts = null;
 			Map<Long, String> newIdMap = null;
+			// Dirty contacts which are sent with the next pages
+			Set<Long> pendingContactIds = new HashSet<Long>();
 			if (syncContacts) {
 
 				// Get local Dirty contacts
 				dirtyContacts = ContactManager.getDirtyContacts(mContext,
 						account, restr, new SyncRestConflictHandler(
-								account.name));
+								account.name), syncResult, groupIndex,
+						pendingContactIds);
 
 				newIdMap = ContactManager.getNewIdMap(mContext, account);
 				syncAnchor.setAnchor(ContactConstants.TYPE_CONTACT,
@@ -305,7 +333,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 				}
 
 				ContactManager.saveGroupIds(mContext, account.name,
-						result.newGroupIdMap);
+						result.newGroupIdMap, groupIndex);
 			}
 			if (result.newContactIdMap != null
 					&& !result.newContactIdMap.isEmpty()) {
@@ -328,7 +356,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 									+ result.serverGroups.size());
 				}
 				updatedGroupIds = ContactManager.updateGroups(mContext,
-						account.name, result.serverGroups);
+						account.name, result.serverGroups, groupIndex);
 			}
 			Set<Long> updatedContactIds = null;
 			if (result.serverContacts != null
@@ -339,8 +367,11 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 							"Calling contactManager's update contacts. Count Updates:"
 									+ result.serverContacts.size());
 				}
+				// The pending contacts keep their local changes, which are
+				// uploaded with the next pages.
 				updatedContactIds = ContactManager.updateContacts(mContext,
-						account.name, result.serverContacts, true, restr);
+						account.name, result.serverContacts, true, restr,
+						groupIndex, pendingContactIds);
 			}
 
 			SyncAnchor newSyncAnchor = result.newServerAnchor;
@@ -394,8 +425,9 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 						result.newGroupIdMap, updatedGroupIds);
 			}
 
+			int clearedCount = 0;
 			if (dirtyContacts != null && !dirtyContacts.isEmpty()) {
-				ContactManager
+				clearedCount = ContactManager
 						.clearSyncFlags(mContext, dirtyContacts, account.name,
 								result.newContactIdMap, updatedContactIds);
 			}
@@ -407,6 +439,9 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 			if (!syncContacts) {
 				// if only groups were synced, restart for syncing contacts.
 				syncResult.fullSyncRequested = true;
+			} else if (syncResult.moreRecordsToGet && clearedCount > 0) {
+				// Page is committed, restart for the remaining dirty contacts.
+				syncResult.fullSyncRequested = true;
 			}
 
 			if (explizitPhotoSave) {
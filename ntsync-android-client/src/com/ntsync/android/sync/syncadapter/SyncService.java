@@ -39,6 +39,7 @@ package com.ntsync.android.sync.syncadapter;
 
 import android.app.Service;
 import android.content.Intent;
+import android.os.Build;
 import android.os.IBinder;
 
 import com.ntsync.android.sync.platform.SystemHelper;
@@ -60,7 +61,13 @@ public class SyncService extends Service {
 		SystemHelper.initSystem(this);		
 		synchronized (SYCN_ADAPTOR_LOCK) {
 			if (syncAdapter == null) {
-				syncAdapter = new SyncAdapter(getApplicationContext(), true);
+				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+					syncAdapter = new SyncAdapter(getApplicationContext(),
+							true, true);
+				} else {
+					syncAdapter = new SyncAdapter(getApplicationContext(),
+							true);
+				}
 			}
 		}
 	}
@@ -0,0 +1,86 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>. 
+ */
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class BatchSizePolicyTest extends TestCase {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		BatchSizePolicy.reset();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		BatchSizePolicy.reset();
+		super.tearDown();
+	}
+
+	@SmallTest
+	public void testGrowFastFullBatch() {
+		BatchSizePolicy.onBatchApplied(50, 0, 50);
+		Assert.assertEquals(62, BatchSizePolicy.getMaxOperations());
+
+		// Not full batches don't grow
+		BatchSizePolicy.onBatchApplied(20, 0, 10);
+		Assert.assertEquals(62, BatchSizePolicy.getMaxOperations());
+
+		for (int i = 0; i < 20; i++) {
+			BatchSizePolicy.onBatchApplied(
+					BatchSizePolicy.getMaxOperations(), 0, 10);
+		}
+		Assert.assertEquals(250, BatchSizePolicy.getMaxOperations());
+	}
+
+	@SmallTest
+	public void testShrinkSlowBatch() {
+		BatchSizePolicy.onBatchApplied(50, 0, 800);
+		Assert.assertEquals(25, BatchSizePolicy.getMaxOperations());
+
+		// Normal duration keeps the size
+		BatchSizePolicy.onBatchApplied(25, 0, 200);
+		Assert.assertEquals(25, BatchSizePolicy.getMaxOperations());
+
+		BatchSizePolicy.onBatchApplied(25, 0, 100000);
+		Assert.assertEquals(10, BatchSizePolicy.getMaxOperations());
+	}
+
+	@SmallTest
+	public void testTransactionTooLarge() {
+		Assert.assertEquals(400 * 1000, BatchSizePolicy.getMaxBlobSize());
+
+		BatchSizePolicy.onTransactionTooLarge(50, 400 * 1000);
+		Assert.assertEquals(25, BatchSizePolicy.getMaxOperations());
+		Assert.assertEquals(200 * 1000, BatchSizePolicy.getMaxBlobSize());
+
+		// Blob budget recovers with fast batches which used the budget
+		BatchSizePolicy.onBatchApplied(25, 200 * 1000, 50);
+		Assert.assertEquals(250 * 1000, BatchSizePolicy.getMaxBlobSize());
+		BatchSizePolicy.onBatchApplied(25, 100 * 1000, 50);
+		Assert.assertEquals(250 * 1000, BatchSizePolicy.getMaxBlobSize());
+
+		BatchSizePolicy.onTransactionTooLarge(4, 1000);
+		Assert.assertEquals(10, BatchSizePolicy.getMaxOperations());
+		Assert.assertEquals(100 * 1000, BatchSizePolicy.getMaxBlobSize());
+	}
+}
@@ -0,0 +1,83 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>. 
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.ntsync.shared.ContactConstants.PhoneType;
+import com.ntsync.shared.ListRawData;
+import com.ntsync.shared.RawContact;
+
+public class ContactFingerprintTest extends TestCase {
+
+	private static final Date LAST_MODIFIED = new Date(1388534400000L);
+
+	@SmallTest
+	public void testStableFingerprint() {
+		String fingerprint = ContactFingerprint.create(
+				createContact("Hans", "+41 44 000 00 00", null), true);
+		Assert.assertNotNull(fingerprint);
+		Assert.assertEquals(fingerprint, ContactFingerprint.create(
+				createContact("Hans", "+41 44 000 00 00", null), true));
+
+		Assert.assertFalse(fingerprint.equals(ContactFingerprint.create(
+				createContact("Hans", "+41 44 000 00 01", null), true)));
+		Assert.assertFalse(fingerprint.equals(ContactFingerprint.create(
+				createContact("Hanna", "+41 44 000 00 00", null), true)));
+	}
+
+	@SmallTest
+	public void testPhoto() {
+		byte[] photo = new byte[] { 1, 2, 3 };
+		byte[] otherPhoto = new byte[] { 1, 2, 4 };
+		String withPhoto = ContactFingerprint.create(
+				createContact("Hans", null, photo), true);
+		Assert.assertEquals(withPhoto, ContactFingerprint.create(
+				createContact("Hans", null, photo.clone()), true));
+		Assert.assertFalse(withPhoto.equals(ContactFingerprint.create(
+				createContact("Hans", null, otherPhoto), true)));
+
+		// Photo is ignored when photo sync is not supported
+		String withoutPhoto = ContactFingerprint.create(
+				createContact("Hans", null, photo), false);
+		Assert.assertFalse(withPhoto.equals(withoutPhoto));
+		Assert.assertEquals(withoutPhoto, ContactFingerprint.create(
+				createContact("Hans", null, otherPhoto), false));
+	}
+
+	private static RawContact createContact(String firstName, String phone,
+			byte[] photo) {
+		List<ListRawData<PhoneType>> phones = null;
+		if (phone != null) {
+			phones = new ArrayList<ListRawData<PhoneType>>();
+			phones.add(new ListRawData<PhoneType>(phone,
+					PhoneType.TYPE_MOBILE, null, true, false));
+		}
+		return RawContact.create(firstName + " Muster", firstName, "Muster",
+				null, null, null, null, null, null, phones, null, null, null,
+				null, null, null, null, null, null, null, photo, false, null,
+				null, false, null, false, LAST_MODIFIED, false, 1, "1", 1);
+	}
+}
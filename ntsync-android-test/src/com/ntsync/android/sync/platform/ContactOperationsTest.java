@@ -0,0 +1,50 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>. 
+ */
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.content.ContentValues;
+import android.provider.ContactsContract.RawContacts;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class ContactOperationsTest extends TestCase {
+
+	@SmallTest
+	public void testLocalModificationClearsFingerprint() {
+		ContentValues values = ContactOperations.createClientModValues(
+				Long.valueOf(3), Long.valueOf(1388534400000L));
+		Assert.assertEquals(Long.valueOf(3),
+				values.getAsLong(RawContacts.SYNC3));
+		Assert.assertEquals(Long.valueOf(1388534400000L),
+				values.getAsLong(RawContacts.SYNC2));
+		Assert.assertTrue(values.containsKey(RawContacts.SYNC4));
+		Assert.assertNull(values.getAsString(RawContacts.SYNC4));
+	}
+
+	@SmallTest
+	public void testVersionValidationKeepsFingerprint() {
+		ContentValues values = ContactOperations.createClientModValues(
+				Long.valueOf(3), null);
+		Assert.assertEquals(Long.valueOf(3),
+				values.getAsLong(RawContacts.SYNC3));
+		Assert.assertFalse(values.containsKey(RawContacts.SYNC2));
+		Assert.assertFalse(values.containsKey(RawContacts.SYNC4));
+	}
+}
@@ -0,0 +1,35 @@
+package com.ntsync.android.sync.platform;
+
+/*
+ * Copyright (C) 2014 Markus Grieder
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>. 
+ */
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class PhotoHelperTest extends TestCase {
+
+	@SmallTest
+	public void testCalculateSampleSize() {
+		Assert.assertEquals(1, PhotoHelper.calculateSampleSize(96, 96, 256));
+		Assert.assertEquals(1, PhotoHelper.calculateSampleSize(511, 300, 256));
+		Assert.assertEquals(2, PhotoHelper.calculateSampleSize(512, 300, 256));
+		Assert.assertEquals(8, PhotoHelper.calculateSampleSize(3264, 2448, 256));
+		Assert.assertEquals(4, PhotoHelper.calculateSampleSize(2448, 3264, 720));
+	}
+}